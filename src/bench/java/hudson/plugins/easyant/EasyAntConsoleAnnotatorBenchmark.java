@@ -0,0 +1,105 @@
+package hudson.plugins.easyant;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Replays an EasyAnt log through {@link EasyAntConsoleAnnotator}, the way the
+ * process output is written during a build.
+ * 
+ * The <tt>bytes</tt> and <tt>lines</tt> secondary results give the throughput
+ * in bytes/s and lines/s, and <tt>writes</tt> the number of writes to the log
+ * per second, to compare with <tt>lines</tt>. Run with <tt>-prof gc</tt> and divide
+ * <tt>gc.alloc.rate.norm</tt> by the number of lines of the log to get the
+ * allocation per line.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EasyAntConsoleAnnotatorBenchmark {
+
+    @Param({ "UTF-8", "UTF-16" })
+    public String charset;
+
+    /**
+     * Process output reaches the annotator in chunks of this size.
+     */
+    @Param({ "8192" })
+    public int chunk;
+
+    private byte[] log;
+    private int lines;
+    private Charset cs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cs = Charset.forName(charset);
+        byte[] utf8 = EasyAntLogs.load(2000, 50);
+        log = new String(utf8, EasyAntLogs.UTF8).getBytes(cs);
+        lines = EasyAntLogs.countLines(utf8);
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long bytes;
+        public long lines;
+        public long writes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            lines = 0;
+            writes = 0;
+        }
+    }
+
+    /**
+     * Discards the output, counting the writes.
+     */
+    static final class CountingNullStream extends OutputStream {
+        long writes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+        }
+    }
+
+    @Benchmark
+    public void annotate(Throughput counters) throws IOException {
+        CountingNullStream out = new CountingNullStream();
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(out,
+                cs);
+        for (int off = 0; off < log.length; off += chunk)
+            annotator.write(log, off, Math.min(chunk, log.length - off));
+        annotator.forceEol();
+        counters.bytes += log.length;
+        counters.lines += lines;
+        counters.writes += out.writes;
+    }
+}
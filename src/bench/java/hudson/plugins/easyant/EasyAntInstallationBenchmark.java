@@ -0,0 +1,89 @@
+package hudson.plugins.easyant;
+
+import hudson.EnvVars;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the resolution of the installation of a step that each build does,
+ * before and after the name index and the {@link EasyAntInstallationCache}.
+ * Scores are per build.
+ *
+ * The translation for the node needs a running Jenkins and is not measured
+ * here; it is reported by the easyant_installation_resolution_seconds metric.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EasyAntInstallationBenchmark {
+
+    @Param({ "10", "200" })
+    int installations;
+
+    private EasyAntInstallation[] configured;
+    private EasyAntInstallation nodeSpecific;
+    private EasyAnt.DescriptorImpl.InstallationIndex index;
+    private String name;
+    private EnvVars env;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        configured = new EasyAntInstallation[installations];
+        for (int i = 0; i < installations; i++)
+            configured[i] = new EasyAntInstallation("easyant-" + i,
+                    "${TOOLS}/easyant-" + i + "/");
+        index = new EasyAnt.DescriptorImpl.InstallationIndex(configured);
+        // the worst case of the scan
+        name = configured[installations - 1].getName();
+        nodeSpecific = configured[installations - 1];
+        env = new EnvVars("TOOLS", "/opt/tools", "BUILD_NUMBER", "42");
+    }
+
+    /**
+     * The lookup by scanning the installations, as before.
+     */
+    @Benchmark
+    public EasyAntInstallation lookupByScan() {
+        for (EasyAntInstallation i : configured) {
+            if (i.getName().equals(name))
+                return i;
+        }
+        return null;
+    }
+
+    @Benchmark
+    public EasyAntInstallation lookupByName() {
+        return index.get(name);
+    }
+
+    /**
+     * The translation for the environment, creating a new installation each
+     * time, as before.
+     */
+    @Benchmark
+    public EasyAntInstallation forEnvironment() {
+        return nodeSpecific.forEnvironment(env);
+    }
+
+    @Benchmark
+    public EasyAntInstallation forEnvironmentCached() {
+        return EasyAntInstallationCache.get().forEnvironment(nodeSpecific,
+                env);
+    }
+}
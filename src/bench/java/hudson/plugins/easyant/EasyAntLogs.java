@@ -0,0 +1,97 @@
+package hudson.plugins.easyant;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the EasyAnt console logs replayed by the benchmarks.
+ * 
+ * A recorded log can be used instead of the synthetic one by setting the
+ * <tt>easyant.benchmark.log</tt> system property to its path.
+ */
+final class EasyAntLogs {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private EasyAntLogs() {
+    }
+
+    /**
+     * Returns the recorded log if one was given, otherwise a synthetic log of
+     * a multi-module build with the given number of targets.
+     */
+    static byte[] load(int targets, int linesPerTarget) throws IOException {
+        String recorded = System.getProperty("easyant.benchmark.log");
+        if (recorded != null)
+            return read(new File(recorded));
+        return synthetic(targets, linesPerTarget).getBytes(UTF8);
+    }
+
+    static String synthetic(int targets, int linesPerTarget) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Buildfile: /var/lib/jenkins/workspace/job/module.ivy\n");
+        sb.append("[ea:build] Loading plugin org.apache.easyant.plugins#build-std-java;0.9\n");
+        for (int t = 0; t < targets; t++) {
+            sb.append('\n');
+            sb.append("module-").append(t / 10).append(':')
+                    .append(TARGETS[t % TARGETS.length]).append(":\n");
+            for (int l = 0; l < linesPerTarget; l++) {
+                sb.append("    [javac] /var/lib/jenkins/workspace/job/src/main/java/org/example/Type")
+                        .append(l)
+                        .append(".java:42: warning: [unchecked] unchecked conversion\n");
+            }
+        }
+        sb.append("\nBUILD SUCCESSFUL\nTotal time: 42 seconds\n");
+        return sb.toString();
+    }
+
+    /**
+     * Splits a log into its lines, keeping the line terminators.
+     */
+    static List<String> lines(byte[] log) {
+        String s = new String(log, UTF8);
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == '\n') {
+                lines.add(s.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < s.length())
+            lines.add(s.substring(start));
+        return lines;
+    }
+
+    static int countLines(byte[] log) {
+        int n = 0;
+        for (byte b : log) {
+            if (b == '\n')
+                n++;
+        }
+        return n;
+    }
+
+    private static byte[] read(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static final String[] TARGETS = { "clean", "validate",
+            "compile-main", "process-resources", "compile-test", "test",
+            "package", "verify" };
+}
@@ -0,0 +1,74 @@
+package hudson.plugins.easyant;
+
+import hudson.MarkupText;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link MarkupText} annotation done by {@link EasyAntTargetNote}
+ * and {@link EasyAntOutcomeNote} when the console page is rendered. Scores are
+ * per annotated line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EasyAntNoteBenchmark {
+
+    static final int TARGETS = 50000;
+
+    private final EasyAntTargetNote targetNote = new EasyAntTargetNote();
+    private final EasyAntOutcomeNote outcomeNote = new EasyAntOutcomeNote();
+
+    private List<String> targetLines;
+    private final String outcomeLine = "BUILD FAILED\n";
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        targetLines = new ArrayList<String>();
+        boolean seenEmptyLine = false;
+        for (String line : EasyAntLogs.lines(EasyAntLogs.synthetic(
+                TARGETS, 0).getBytes(EasyAntLogs.UTF8))) {
+            String trimmed = line.trim();
+            if (seenEmptyLine && trimmed.endsWith(":"))
+                targetLines.add(line);
+            seenEmptyLine = trimmed.length() == 0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TARGETS)
+    public int targetNotes() {
+        int n = 0;
+        for (String line : targetLines) {
+            MarkupText text = new MarkupText(line);
+            targetNote.annotate(null, text, 0);
+            n += text.toString().length();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public String outcomeNote() {
+        MarkupText text = new MarkupText(outcomeLine);
+        outcomeNote.annotate(null, text, 0);
+        return text.toString();
+    }
+}
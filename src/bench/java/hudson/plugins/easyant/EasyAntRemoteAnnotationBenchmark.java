@@ -0,0 +1,112 @@
+package hudson.plugins.easyant;
+
+import hudson.util.NullStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the work left to the master for each EasyAnt build when the output
+ * is annotated on the master ({@link #masterSide}) and when it is annotated
+ * on the node ({@link #agentSide}), with 50 builds writing their output at
+ * once. Scores are per replay of the log.
+ *
+ * The <tt>wireBytes</tt> secondary result gives the bytes sent over the
+ * channel per second, to compare with <tt>bytes</tt>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(50)
+@State(Scope.Benchmark)
+public class EasyAntRemoteAnnotationBenchmark {
+
+    /**
+     * Process output reaches the annotator in chunks of this size.
+     */
+    static final int CHUNK = 8192;
+
+    private final Charset cs = EasyAntLogs.UTF8;
+
+    private byte[] log;
+
+    /**
+     * The log as sent by the nodes, annotated and compressed.
+     */
+    private byte[] frames;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        log = EasyAntLogs.load(2000, 50);
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(
+                new EasyAntRemoteAnnotator.DeflatingStream(wire), cs);
+        replay(annotator, log);
+        annotator.forceEol();
+        frames = wire.toByteArray();
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Traffic {
+        public long bytes;
+        public long wireBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            wireBytes = 0;
+        }
+    }
+
+    private static void replay(OutputStream out, byte[] data)
+            throws IOException {
+        for (int off = 0; off < data.length; off += CHUNK)
+            out.write(data, off, Math.min(CHUNK, data.length - off));
+    }
+
+    /**
+     * The master splits the lines, matches the targets and writes the log.
+     */
+    @Benchmark
+    public void masterSide(Traffic traffic) throws IOException {
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(
+                new NullStream(), cs);
+        replay(annotator, log);
+        annotator.forceEol();
+        traffic.bytes += log.length;
+        traffic.wireBytes += log.length;
+    }
+
+    /**
+     * The master inflates the frames and writes the log.
+     */
+    @Benchmark
+    public void agentSide(Traffic traffic) throws IOException {
+        EasyAntRemoteAnnotator.InflatingStream in = new EasyAntRemoteAnnotator.InflatingStream(
+                new NullStream());
+        replay(in, frames);
+        in.close();
+        traffic.bytes += log.length;
+        traffic.wireBytes += frames.length;
+    }
+}
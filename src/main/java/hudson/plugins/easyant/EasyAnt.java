@@ -10,23 +10,31 @@ import hudson.model.BuildListener;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.tools.ToolInstallation;
 import hudson.util.ArgumentListBuilder;
+import hudson.util.FormValidation;
 import hudson.util.VariableResolver;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
 import net.sf.json.JSONObject;
 
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
 /**
  * A builder for EasyAnt scripts
@@ -54,15 +62,110 @@ public class EasyAnt extends Builder {
      */
     private final String properties;
 
+    /**
+     * True to use the Ivy cache shared by the builds of the node.
+     */
+    private final boolean sharedIvyCache;
+
+    /**
+     * Ant-style patterns of the module descriptors of a multi-module build, or
+     * null to build a single module.
+     */
+    private final String modules;
+
+    /**
+     * Maximum number of modules built concurrently.
+     */
+    private final int parallelism;
+
+    /**
+     * True to skip the step when its inputs did not change since the last
+     * successful build.
+     */
+    private final boolean skipIfUnchanged;
+
+    /**
+     * Ant-style patterns of the input files taken into account by
+     * {@link #skipIfUnchanged}, besides the build module and build file.
+     */
+    private final String inputs;
+
+    /**
+     * True to read the targets and their timings from the events reported by
+     * EasyAnt instead of the console output only.
+     */
+    private final boolean structuredEvents;
+
+    /**
+     * True to measure the resources used by the EasyAnt processes.
+     */
+    private final boolean recordResources;
+
+    /**
+     * True to restore the outputs of the step from the
+     * {@link EasyAntBuildCache} when its inputs were already built.
+     */
+    private final boolean buildCache;
+
+    /**
+     * Ant-style patterns of the outputs of the step, relative to the module
+     * root, stored in the {@link EasyAntBuildCache}.
+     */
+    private final String outputs;
+
+    /**
+     * Number of EasyAnt processes among which the tests are split.
+     */
+    private final int shards;
+
+    /**
+     * Ant-style patterns of the test sources, relative to the module root,
+     * split among the {@link #shards}.
+     */
+    private final String tests;
+
+    /**
+     * Targets run by each of the {@link #shards}, once the other targets of
+     * the step were run by a single process, or null for "test".
+     */
+    private final String testTargets;
+
     @DataBoundConstructor
     public EasyAnt(String easyAntName, String targets, String buildModule,
-            String buildFile, String easyAntOpts, String properties) {
+            String buildFile, String easyAntOpts, String properties,
+            boolean sharedIvyCache, String modules, int parallelism,
+            boolean skipIfUnchanged, String inputs, boolean structuredEvents,
+            boolean recordResources, boolean buildCache, String outputs,
+            int shards, String tests, String testTargets) {
         this.easyAntName = easyAntName;
         this.targets = targets;
         this.buildModule = Util.fixEmptyAndTrim(buildModule);
         this.buildFile = Util.fixEmptyAndTrim(buildFile);
         this.easyAntOpts = Util.fixEmptyAndTrim(easyAntOpts);
         this.properties = Util.fixEmptyAndTrim(properties);
+        this.sharedIvyCache = sharedIvyCache;
+        this.modules = Util.fixEmptyAndTrim(modules);
+        this.parallelism = Math.max(1, parallelism);
+        this.skipIfUnchanged = skipIfUnchanged;
+        this.inputs = Util.fixEmptyAndTrim(inputs);
+        this.structuredEvents = structuredEvents;
+        this.recordResources = recordResources;
+        this.buildCache = buildCache;
+        this.outputs = Util.fixEmptyAndTrim(outputs);
+        this.shards = Math.max(1, shards);
+        this.tests = Util.fixEmptyAndTrim(tests);
+        this.testTargets = Util.fixEmptyAndTrim(testTargets);
+    }
+
+    /**
+     * @deprecated Use
+     *             {@link #EasyAnt(String, String, String, String, String, String, boolean, String, int, boolean, String, boolean, boolean, boolean, String, int, String, String)}
+     */
+    public EasyAnt(String easyAntName, String targets, String buildModule,
+            String buildFile, String easyAntOpts, String properties) {
+        this(easyAntName, targets, buildModule, buildFile, easyAntOpts,
+                properties, false, null, 1, false, null, false, false, false,
+                null, 1, null, null);
     }
 
     public String getEasyAntName() {
@@ -89,33 +192,163 @@ public class EasyAnt extends Builder {
         return buildModule;
     }
 
-    public EasyAntInstallation getEasyAnt() {
-        for (EasyAntInstallation i : getDescriptor().getInstallations()) {
-            if (easyAntName != null && i.getName().equals(easyAntName))
-                return i;
-        }
-        return null;
+    public boolean isSharedIvyCache() {
+        return sharedIvyCache;
+    }
+
+    public String getModules() {
+        return modules;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public boolean isSkipIfUnchanged() {
+        return skipIfUnchanged;
+    }
+
+    public String getInputs() {
+        return inputs;
+    }
+
+    public boolean isStructuredEvents() {
+        return structuredEvents;
+    }
+
+    public boolean isRecordResources() {
+        return recordResources;
+    }
+
+    public boolean isBuildCache() {
+        return buildCache;
+    }
+
+    public String getOutputs() {
+        return outputs;
+    }
+
+    public int getShards() {
+        return shards;
+    }
 
+    public String getTests() {
+        return tests;
+    }
+
+    public String getTestTargets() {
+        return testTargets;
+    }
+
+    /**
+     * Fills the defaults of configurations saved before the field existed.
+     */
+    private Object readResolve() {
+        if (parallelism < 1 || shards < 1)
+            return new EasyAnt(easyAntName, targets, buildModule, buildFile,
+                    easyAntOpts, properties, sharedIvyCache, modules,
+                    parallelism, skipIfUnchanged, inputs, structuredEvents,
+                    recordResources, buildCache, outputs, shards, tests,
+                    testTargets);
+        return this;
+    }
+
+    public EasyAntInstallation getEasyAnt() {
+        return getDescriptor().getInstallation(easyAntName);
     }
 
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher,
             BuildListener listener) throws InterruptedException, IOException {
+        EasyAntMetrics metrics = EasyAntMetrics.get();
+        EasyAntMetrics.Gauge running = metrics.gauge("easyant_steps_running",
+                "EasyAnt steps currently running");
+        running.inc();
+        long start = System.nanoTime();
+        String result = "error";
+        try {
+            boolean success = doPerform(build, launcher, listener);
+            result = success ? "success" : "failure";
+            return success;
+        } finally {
+            running.dec();
+            metrics.counter("easyant_steps_total",
+                    "EasyAnt steps completed, by result", "result", result)
+                    .inc();
+            metrics.histogram("easyant_step_duration_seconds",
+                    "Duration of the EasyAnt steps", "installation",
+                    String.valueOf(easyAntName), "node",
+                    EasyAntMetrics.nodeLabel(build.getBuiltOnStr()))
+                    .observeSince(start);
+        }
+    }
+
+    private boolean doPerform(AbstractBuild<?, ?> build, Launcher launcher,
+            BuildListener listener) throws InterruptedException, IOException {
         ArgumentListBuilder args = new ArgumentListBuilder();
 
         EnvVars env = build.getEnvironment(listener);
         // env.overrideAll(build.getBuildVariables());
 
+        Node node = Computer.currentComputer().getNode();
         EasyAntInstallation ai = getEasyAnt();
+        String exe = null;
+        if (ai != null) {
+            long resolutionStart = System.nanoTime();
+            EasyAntInstallationCache installations = EasyAntInstallationCache
+                    .get();
+            ai = installations.forNode(ai, node, listener);
+            ai = installations.forEnvironment(ai, env);
+            EasyAntMetrics.get().histogram(
+                    "easyant_installation_resolution_seconds",
+                    "Translations of the installation for the node and environment of the builds")
+                    .observeSince(resolutionStart);
+            exe = EasyAntExecutableCache.get().lookup(node, ai);
+        }
+
+        VariableResolver<String> vr = new VariableResolver.ByMap<String>(env);
+        String buildModule = env.expand(this.buildModule);
+        String buildFile = env.expand(this.buildFile);
+        String targets = env.expand(this.targets);
+        if (modules != null && (buildModule != null || buildFile != null)) {
+            // each module is built from its own build module
+            listener.fatalError(Messages.EasyAnt_ModulesWithBuildModule());
+            return false;
+        }
+
+        // check the executable, build module and build file in one call
+        EasyAntLaunchProbe.Result probe = null;
+        // difference between the clocks of the master and of the node
+        long clockDelta = 0;
+        if ((ai != null && exe == null) || buildModule != null
+                || buildFile != null || sharedIvyCache || structuredEvents) {
+            long probeStart = System.nanoTime();
+            long clock = System.currentTimeMillis();
+            probe = launcher.getChannel().call(
+                    new EasyAntLaunchProbe(build.getModuleRoot(), build
+                            .getWorkspace(), buildModule, buildFile,
+                            exe == null ? ai : null));
+            EasyAntMetrics.get().histogram("easyant_launch_probe_seconds",
+                    "Round trips checking the executable and build files on the node")
+                    .observeSince(probeStart);
+            // the node was probed about halfway through the call
+            clock += (System.currentTimeMillis() - clock) / 2;
+            clockDelta = clock - probe.getTime();
+        }
+
         if (ai == null) {
             args.add(launcher.isUnix() ? EasyAntInstallation.UNIX_EASYANT_COMMAND
                     : EasyAntInstallation.WINDOWS_EASYANT_COMMAND);
 
         } else {
-            ai = ai.forNode(Computer.currentComputer().getNode(), listener);
-            ai = ai.forEnvironment(env);
-            String exe;
-            exe = ai.getExecutable(launcher);
+            if (exe == null) {
+                exe = probe.getExecutable();
+                EasyAntExecutableCache.get().put(node, ai, exe);
+                EasyAntMetrics.get().histogram(
+                        "easyant_executable_resolution_seconds",
+                        "Lookups of the EasyAnt executable on the nodes")
+                        .observe(probe.getExecutableNanos());
+            }
             if (exe == null) {
                 listener.error("Can't retrieve the EasyAnt executable.");
                 return false;
@@ -123,26 +356,22 @@ public class EasyAnt extends Builder {
             args.add(exe);
         }
 
-        VariableResolver<String> vr = new VariableResolver.ByMap<String>(env);
-        String buildModule = env.expand(this.buildModule);
-        String buildFile = env.expand(this.buildFile);
-        String targets = env.expand(this.targets);
-
         if (buildModule != null) {
-            FilePath buildModulePath = buildFilePath(build, listener,
-                    buildModule);
-            if (buildModulePath == null) {
+            if (probe.getBuildModule() == null) {
+                buildFileNotFound(build, listener, buildModule);
                 return false;
             }
-            args.add("-buildModule", buildModulePath.getName());
+            args.add("-buildModule", new FilePath(launcher.getChannel(),
+                    probe.getBuildModule()).getName());
         }
 
         if (buildFile != null) {
-            FilePath buildFilePath = buildFilePath(build, listener, buildFile);
-            if (buildFilePath == null) {
+            if (probe.getBuildFile() == null) {
+                buildFileNotFound(build, listener, buildFile);
                 return false;
             }
-            args.add("-buildFile", buildFilePath.getName());
+            args.add("-buildFile", new FilePath(launcher.getChannel(), probe
+                    .getBuildFile()).getName());
         }
 
         Set<String> sensitiveVars = build.getSensitiveBuildVariables();
@@ -152,7 +381,20 @@ public class EasyAnt extends Builder {
         args.addKeyValuePairsFromPropertyString("-D", properties, vr,
                 sensitiveVars);
 
-        args.addTokenized(targets.replaceAll("[\t\r\n]+", " "));
+        FilePath ivyCache = null;
+        if (sharedIvyCache) {
+            ivyCache = EasyAntIvyCache.getDirectory(node);
+            args.addKeyValuePair("-D", EasyAntIvyCache.CACHE_DIR_PROPERTY,
+                    ivyCache.getRemote(), false);
+            // unless the user chose another strategy
+            if (!hasProperty(properties,
+                    EasyAntIvyCache.LOCK_STRATEGY_PROPERTY))
+                args.addKeyValuePair("-D",
+                        EasyAntIvyCache.LOCK_STRATEGY_PROPERTY,
+                        EasyAntIvyCache.LOCK_STRATEGY, false);
+        }
+
+        targets = targets.replaceAll("[\t\r\n]+", " ");
 
         if (ai != null) {
             env.put("EASYANT_HOME", ai.getHome());
@@ -160,18 +402,6 @@ public class EasyAnt extends Builder {
         if (easyAntOpts != null)
             env.put("EASYANT_OPTS", env.expand(easyAntOpts));
 
-        if (!launcher.isUnix()) {
-            args = args.toWindowsCommand();
-            // For some reason, ant on windows rejects empty parameters but unix
-            // does not.
-            // Add quotes for any empty parameter values:
-            List<String> newArgs = new ArrayList<String>(args.toList());
-            newArgs.set(newArgs.size() - 1, newArgs.get(newArgs.size() - 1)
-                    .replaceAll("(?<= )(-D[^\" ]+)= ", "$1=\"\" "));
-            args = new ArgumentListBuilder(newArgs.toArray(new String[newArgs
-                    .size()]));
-        }
-
         FilePath rootLauncher = null;
         if (buildFile != null && buildFile.trim().length() != 0) {
             String rootBuildScriptReal = Util.replaceMacro(buildFile, env);
@@ -181,19 +411,158 @@ public class EasyAnt extends Builder {
             rootLauncher = build.getModuleRoot();
         }
 
+        String fingerprint = null;
+        if (skipIfUnchanged && inputs == null) {
+            // changes of the sources would not be seen
+            listener.getLogger().println(Messages.EasyAnt_SkipNeedsInputs());
+        } else if (skipIfUnchanged) {
+            fingerprint = fingerprint(build, env, args, targets, probe);
+            if (fingerprint.equals(EasyAntFingerprintAction.previous(build,
+                    getStepId()))) {
+                listener.getLogger().println(
+                        Messages.EasyAnt_UpToDate(fingerprint));
+                EasyAntFingerprintAction.record(build, getStepId(),
+                        fingerprint);
+                return true;
+            }
+        }
+
+        EasyAntBuildCache cache = null;
+        String cacheKey = null;
+        if (buildCache && outputs != null) {
+            if (inputs == null) {
+                // the outputs could be restored for other inputs
+                listener.getLogger().println(
+                        Messages.EasyAnt_BuildCacheNeedsInputs());
+            } else if ((cache = EasyAntBuildCache.get()) != null) {
+                if (fingerprint == null)
+                    fingerprint = fingerprint(build, env, args, targets, probe);
+                cacheKey = Util.getDigestOf(fingerprint + '|'
+                        + env.expand(outputs));
+                long restored = cache.restore(cacheKey, build.getModuleRoot(),
+                        listener);
+                EasyAntMetrics.get().counter("easyant_build_cache_total",
+                        "Lookups of step outputs in the build cache", "result",
+                        restored >= 0 ? "hit" : "miss").inc();
+                if (restored >= 0) {
+                    listener.getLogger().println(
+                            Messages.EasyAnt_RestoredFromCache(cacheKey));
+                    getBuildCacheAction(build).hit(restored);
+                    EasyAntFingerprintAction.record(build, getStepId(),
+                            fingerprint);
+                    return true;
+                }
+                getBuildCacheAction(build).miss();
+            }
+        }
+
+        // after the fingerprint, as they change EASYANT_OPTS
+        EasyAntJvmProfile profile = ai == null ? null : ai.getProperties()
+                .get(EasyAntJvmProfile.class);
+        if (profile != null) {
+            String opts = env.get("EASYANT_OPTS");
+            String profileOpts = profile.getOptions(node, env);
+            listener.getLogger().println(
+                    Messages.EasyAnt_JvmProfile(profileOpts));
+            if (profileOpts.length() > 0)
+                env.put("EASYANT_OPTS", opts == null ? profileOpts
+                        : profileOpts + ' ' + opts);
+        }
+        EasyAntClassDataSharing cds = null;
+        // a single process writes the archive
+        if (profile != null && profile.isAppClassSharing() && modules == null
+                && !isSharded())
+            cds = EasyAntClassDataSharing.prepare(node, ai, env);
+        EasyAntResourceMonitor monitor = null;
+        if (recordResources)
+            monitor = EasyAntResourceMonitor.prepare(node, env, modules == null
+                    && !isSharded());
+
         long startTime = System.currentTimeMillis();
         try {
-            EasyAntConsoleAnnotator eaca = new EasyAntConsoleAnnotator(
-                    listener.getLogger(), build.getCharset());
-            int r;
+            boolean success = false;
+            if (monitor != null)
+                monitor.start();
+            if (ivyCache != null)
+                EasyAntIvyCache.getLock(node).readLock().lock();
             try {
-                r = launcher.launch().cmds(args).envs(env).stdout(eaca)
-                        .pwd(rootLauncher).join();
+                if (modules != null) {
+                    List<EasyAntModule> found = build.getModuleRoot().act(
+                            new EasyAntModule.Scanner(env.expand(modules)));
+                    if (found.isEmpty()) {
+                        listener.fatalError(Messages
+                                .EasyAnt_NoModuleFound(modules));
+                        return false;
+                    }
+                    success = new EasyAntModuleScheduler(build, launcher,
+                            listener, env, args, targets, parallelism,
+                            monitor, true).run(found);
+                } else if (isSharded()) {
+                    success = runShards(build, launcher, listener, env, args,
+                            targets, rootLauncher, node, monitor);
+                } else {
+                    EasyAntEventChannel events = null;
+                    if (structuredEvents) {
+                        events = EasyAntEventChannel.open(node, clockDelta);
+                        events.addArguments(args);
+                    }
+                    args.addTokenized(targets);
+                    success = launch(build, launcher, listener, env,
+                            toCommand(launcher, args), rootLauncher, events,
+                            monitor, cds);
+                }
             } finally {
-                eaca.forceEol();
+                // the archive written by a failed launch is removed
+                if (cds != null) {
+                    try {
+                        cds.finish(success, listener);
+                    } catch (IOException e) {
+                        warn(listener, Messages.EasyAnt_CdsFailed(), e);
+                    }
+                }
+                if (ivyCache != null)
+                    EasyAntIvyCache.getLock(node).readLock().unlock();
+                if (monitor != null) {
+                    // do not hide the failure of the step
+                    try {
+                        monitor.stop();
+                    } catch (IOException e) {
+                        warn(listener, Messages.EasyAnt_ResourcesFailed(), e);
+                    }
+                    monitor.save(build);
+                }
+            }
+            // the step is done, whatever happens to its bookkeeping
+            if (ivyCache != null) {
+                try {
+                    recordIvyCache(build, node, ivyCache, probe.getTime());
+                } catch (IOException e) {
+                    warn(listener, Messages.EasyAnt_IvyCacheFailed(), e);
+                }
+            }
+            if (success && fingerprint != null)
+                EasyAntFingerprintAction.record(build, getStepId(),
+                        fingerprint);
+            if (success && cacheKey != null) {
+                try {
+                    long stored = cache.store(cacheKey, build.getModuleRoot(),
+                            env.expand(outputs), listener);
+                    if (stored >= 0)
+                        getBuildCacheAction(build).stored(stored);
+                    else
+                        listener.getLogger().println(
+                                Messages.EasyAnt_NoOutputToCache(outputs));
+                } catch (IOException e) {
+                    warn(listener, Messages.EasyAnt_BuildCacheStoreFailed(), e);
+                }
             }
-            return r == 0;
+            return success;
         } catch (IOException e) {
+            if (ai != null) {
+                // the installation may have been removed from the node
+                EasyAntExecutableCache.get().invalidate(node, ai);
+                EasyAntInstallationCache.get().invalidate(node, ai);
+            }
             Util.displayIOException(e, listener);
 
             String errorMessage = Messages.EasyAnt_ExecFailed();
@@ -212,37 +581,263 @@ public class EasyAnt extends Builder {
 
     }
 
-    private FilePath buildFilePath(AbstractBuild<?, ?> build,
-            BuildListener listener, String file) throws IOException,
+    private boolean isSharded() {
+        return modules == null && shards > 1 && tests != null;
+    }
+
+    /**
+     * Runs the targets of the step but the {@link #testTargets} once, then
+     * splits the tests among {@link #shards} EasyAnt processes run at once,
+     * which only run the test targets, each being given its tests by the
+     * properties of {@link EasyAntTestSharder}. All the shards run to
+     * completion, so that the reports of all the tests can be published.
+     */
+    private boolean runShards(AbstractBuild<?, ?> build, Launcher launcher,
+            BuildListener listener, EnvVars env, ArgumentListBuilder args,
+            String targets, FilePath pwd, Node node,
+            EasyAntResourceMonitor monitor) throws IOException,
             InterruptedException {
-        FilePath filepath = build.getModuleRoot().child(file);
-        if (filepath.exists()) {
-            return filepath;
-        } else {
-            // because of the poor choice of getModuleRoot() with
-            // CVS/Subversion, people often get confused
-            // with where the build file path is relative to. Now it's too late
-            // to change this behavior
-            // due to compatibility issue, but at least we can make this less
-            // painful by looking for errors
-            // and diagnosing it nicely. See HUDSON-1782
-
-            // first check if this appears to be a valid relative path from
-            // workspace root
-            FilePath buildFilePath2 = build.getWorkspace().child(file);
-            if (buildFilePath2.exists()) {
-                // This must be what the user meant. Let it continue.
-                return buildFilePath2;
-            } else {
-                // neither file exists. So this now really does look like an
-                // error.
+        List<String> found = build.getModuleRoot().act(
+                new EasyAntTestSharder.Scanner(env.expand(tests)));
+        if (found.isEmpty()) {
+            listener.fatalError(Messages.EasyAnt_NoTestFound(tests));
+            return false;
+        }
+        String testTargets = this.testTargets == null ? "test" : env
+                .expand(this.testTargets);
+        // the shards would build the same outputs at once
+        String once = EasyAntTestSharder.without(targets, testTargets);
+        if (once.length() > 0) {
+            ArgumentListBuilder a = args.clone();
+            a.addTokenized(once);
+            if (!launch(build, launcher, listener, env, toCommand(launcher, a),
+                    pwd, null, monitor, null))
+                return false;
+        }
+        List<List<String>> split = EasyAntTestSharder.split(found,
+                EasyAntTestSharder.durations(build), shards);
+
+        String directory = buildFile == null ? null : new File(env
+                .expand(buildFile)).getParent();
+        FilePath tmp = node.getRootPath().child("easyant");
+        tmp.mkdirs();
+        List<FilePath> includes = new ArrayList<FilePath>();
+        List<EasyAntModule> jobs = new ArrayList<EasyAntModule>();
+        try {
+            for (int i = 0; i < split.size(); i++) {
+                FilePath file = tmp.createTempFile("shard", ".txt");
+                includes.add(file);
+                file.write(EasyAntTestSharder.toIncludes(split.get(i)),
+                        "UTF-8");
+                EasyAntModule shard = new EasyAntModule(directory, null, null,
+                        "shard-" + (i + 1));
+                List<String> a = shard.getArguments();
+                a.add("-D" + EasyAntTestSharder.INDEX_PROPERTY + '=' + (i + 1));
+                a.add("-D" + EasyAntTestSharder.COUNT_PROPERTY + '='
+                        + split.size());
+                a.add("-D" + EasyAntTestSharder.TESTS_PROPERTY + '='
+                        + Util.join(split.get(i), ","));
+                a.add("-D" + EasyAntTestSharder.INCLUDES_FILE_PROPERTY + '='
+                        + file.getRemote());
+                listener.getLogger().println(
+                        Messages.EasyAnt_Shard(shard.getName(), split.get(i)
+                                .size()));
+                jobs.add(shard);
+            }
+            return new EasyAntModuleScheduler(build, launcher, listener, env,
+                    args, testTargets, jobs.size(), monitor, false).run(jobs);
+        } finally {
+            for (FilePath file : includes)
+                file.delete();
+        }
+    }
 
-                listener.fatalError("Unable to find build module or build script at "
-                        + filepath);
-                return null;
+    /**
+     * Identifies this step among the EasyAnt steps of the project.
+     */
+    private String getStepId() {
+        return buildModule + '|' + buildFile + '|' + modules + '|' + targets;
+    }
+
+    /**
+     * Computes, on the node, the fingerprint of the inputs of the step, which
+     * is the same on all the nodes for the same inputs.
+     */
+    private String fingerprint(AbstractBuild<?, ?> build, EnvVars env,
+            ArgumentListBuilder args, String targets,
+            EasyAntLaunchProbe.Result probe) throws IOException,
+            InterruptedException {
+        List<String> files = new ArrayList<String>();
+        if (probe != null && probe.getBuildModule() != null)
+            files.add(probe.getBuildModule());
+        if (probe != null && probe.getBuildFile() != null)
+            files.add(probe.getBuildFile());
+
+        String includes = env.expand(inputs);
+        if (modules != null)
+            includes = includes == null ? env.expand(modules) : includes + ','
+                    + env.expand(modules);
+
+        // the executable and the Ivy cache are paths of the node
+        List<String> command = new ArrayList<String>();
+        String ivyCacheDir = "-D" + EasyAntIvyCache.CACHE_DIR_PROPERTY + '=';
+        List<String> argList = args.toList();
+        for (String arg : argList.subList(1, argList.size())) {
+            if (!arg.startsWith(ivyCacheDir))
+                command.add(arg);
+        }
+        command.add(targets);
+        command.add(String.valueOf(env.get("EASYANT_OPTS")));
+        return build.getModuleRoot().act(
+                new EasyAntFingerprint(includes, files, command));
+    }
+
+    /**
+     * Runs EasyAnt with its output annotated and its targets indexed. The
+     * timings of the targets are taken from the events reported by EasyAnt,
+     * when a channel is given, and the output is measured by the monitor, if
+     * any. The time to the first target is given to the class data sharing
+     * archive, if any.
+     */
+    private boolean launch(AbstractBuild<?, ?> build, Launcher launcher,
+            BuildListener listener, EnvVars env, ArgumentListBuilder args,
+            FilePath pwd, EasyAntEventChannel events,
+            EasyAntResourceMonitor monitor, EasyAntClassDataSharing cds)
+            throws IOException, InterruptedException {
+        // targets are indexed by their offset in the build log, which is
+        // taken again after the command line printed by the launcher
+        listener.getLogger().flush();
+        EasyAntTargetRecorder recorder = new EasyAntTargetRecorder(build
+                .getLogFile().length());
+        EasyAntFailureRecorder failure = new EasyAntFailureRecorder("",
+                build.getCharset());
+        long launched = System.currentTimeMillis();
+        try {
+            if (EasyAntRemoteAnnotator.isApplicable(launcher)) {
+                EasyAntRemoteAnnotator.Result r = EasyAntRemoteAnnotator
+                        .launch(launcher, listener, env, args, pwd, build
+                                .getCharset(), recorder, failure);
+                recorder = r.getRecorder();
+                failure = r.getFailure();
+                if (monitor != null)
+                    monitor.addOutput(r.getOutputBytes(), r.getLines());
+                return r.getExitCode() == 0;
             }
+            EasyAntConsoleAnnotator eaca = new EasyAntConsoleAnnotator(
+                    listener.getLogger(), build.getCharset(), listeners(
+                            recorder, failure, monitor));
+            try {
+                return launcher.launch().cmds(args).envs(env).stdout(
+                        recorder.rebaseOnFirstWrite(eaca, listener
+                                .getLogger(), build.getLogFile())).pwd(pwd)
+                        .join() == 0;
+            } finally {
+                eaca.end();
+            }
+        } finally {
+            if (events != null) {
+                events.stop();
+                recorder.merge(events.getTargets());
+            }
+            if (cds != null && !recorder.getTargets().isEmpty())
+                cds.setStartup(recorder.getTargets().get(0).getStart()
+                        - launched);
+            recorder.save(build);
+            failure.save(build);
+        }
+    }
+
+    /**
+     * Gets the given listeners, except the null ones.
+     */
+    static EasyAntConsoleListener[] listeners(
+            EasyAntConsoleListener... listeners) {
+        List<EasyAntConsoleListener> all = new ArrayList<EasyAntConsoleListener>();
+        for (EasyAntConsoleListener l : listeners) {
+            if (l != null)
+                all.add(l);
+        }
+        return all.toArray(new EasyAntConsoleListener[all.size()]);
+    }
+
+    /**
+     * Turns the arguments into the command line for the platform of the node.
+     */
+    static ArgumentListBuilder toCommand(Launcher launcher,
+            ArgumentListBuilder args) {
+        if (launcher.isUnix())
+            return args;
+        args = args.toWindowsCommand();
+        // For some reason, ant on windows rejects empty parameters but unix
+        // does not.
+        // Add quotes for any empty parameter values:
+        List<String> newArgs = new ArrayList<String>(args.toList());
+        newArgs.set(newArgs.size() - 1, newArgs.get(newArgs.size() - 1)
+                .replaceAll("(?<= )(-D[^\" ]+)= ", "$1=\"\" "));
+        return new ArgumentListBuilder(newArgs.toArray(new String[newArgs
+                .size()]));
+    }
+
+    /**
+     * Reports a failure which does not change the result of the step.
+     */
+    /**
+     * Checks whether the properties of the step set the given property.
+     */
+    private static boolean hasProperty(String properties, String name)
+            throws IOException {
+        if (properties == null)
+            return false;
+        Properties p = new Properties();
+        p.load(new StringReader(properties));
+        return p.containsKey(name);
+    }
+
+    private static void warn(BuildListener listener, String message,
+            IOException e) {
+        listener.getLogger().println(message);
+        e.printStackTrace(listener.getLogger());
+    }
+
+    private void recordIvyCache(AbstractBuild<?, ?> build, Node node,
+            FilePath ivyCache, long since) throws IOException,
+            InterruptedException {
+        EasyAntIvyCache.Stats stats = EasyAntIvyCache.scan(ivyCache, since);
+        EasyAntIvyCache.evict(node, ivyCache, stats);
+        EasyAntIvyCacheAction action = build
+                .getAction(EasyAntIvyCacheAction.class);
+        if (action == null) {
+            action = new EasyAntIvyCacheAction();
+            build.addAction(action);
         }
+        action.add(stats);
+    }
 
+    private static EasyAntBuildCacheAction getBuildCacheAction(
+            AbstractBuild<?, ?> build) {
+        EasyAntBuildCacheAction action = build
+                .getAction(EasyAntBuildCacheAction.class);
+        if (action == null) {
+            action = new EasyAntBuildCacheAction();
+            build.addAction(action);
+        }
+        return action;
+    }
+
+    /**
+     * Reports a build module or build file found neither relative to the
+     * module root nor relative to the workspace root.
+     */
+    private void buildFileNotFound(AbstractBuild<?, ?> build,
+            BuildListener listener, String file) {
+        // because of the poor choice of getModuleRoot() with
+        // CVS/Subversion, people often get confused
+        // with where the build file path is relative to. Now it's too late
+        // to change this behavior
+        // due to compatibility issue, so EasyAntLaunchProbe also looks
+        // for it relative to the workspace root. See HUDSON-1782
+        listener.fatalError("Unable to find build module or build script at "
+                + build.getModuleRoot().child(file));
     }
 
     @Override
@@ -257,6 +852,11 @@ public class EasyAnt extends Builder {
         @CopyOnWrite
         private volatile EasyAntInstallation[] installations = new EasyAntInstallation[0];
 
+        /**
+         * {@link #installations} by name, built when first needed.
+         */
+        private transient volatile InstallationIndex installationIndex;
+
         public DescriptorImpl() {
             load();
         }
@@ -269,6 +869,17 @@ public class EasyAnt extends Builder {
             super(clazz);
         }
 
+        public FormValidation doCheckModules(@QueryParameter String value,
+                @QueryParameter String buildModule,
+                @QueryParameter String buildFile) {
+            if (Util.fixEmptyAndTrim(value) != null
+                    && (Util.fixEmptyAndTrim(buildModule) != null || Util
+                            .fixEmptyAndTrim(buildFile) != null))
+                return FormValidation.error(Messages
+                        .EasyAnt_ModulesWithBuildModule());
+            return FormValidation.ok();
+        }
+
         /**
          * Obtains the {@link EasyantInstallation.DescriptorImpl} instance.
          */
@@ -290,20 +901,98 @@ public class EasyAnt extends Builder {
             return installations;
         }
 
+        /**
+         * Gets the installation of the given name, or null if there is none.
+         */
+        public EasyAntInstallation getInstallation(String name) {
+            if (name == null)
+                return null;
+            EasyAntInstallation[] current = installations;
+            InstallationIndex index = installationIndex;
+            if (index == null || index.installations != current) {
+                index = new InstallationIndex(current);
+                installationIndex = index;
+            }
+            return index.get(name);
+        }
+
+        /**
+         * Installations by name, the first one winning as with a lookup in
+         * the array.
+         */
+        static final class InstallationIndex {
+            private final EasyAntInstallation[] installations;
+            private final Map<String, EasyAntInstallation> byName = new HashMap<String, EasyAntInstallation>();
+
+            InstallationIndex(EasyAntInstallation[] installations) {
+                this.installations = installations;
+                for (EasyAntInstallation i : installations) {
+                    if (!byName.containsKey(i.getName()))
+                        byName.put(i.getName(), i);
+                }
+            }
+
+            EasyAntInstallation get(String name) {
+                return byName.get(name);
+            }
+        }
+
         public void setInstallations(EasyAntInstallation... installations) {
             this.installations = installations;
+            installationsChanged();
             save();
         }
 
+        private void installationsChanged() {
+            EasyAntExecutableCache.get().invalidateAll();
+            EasyAntInstallationCache.get().invalidateAll();
+        }
+
         @Override
         public boolean configure(StaplerRequest req, JSONObject json)
                 throws FormException {
             installations = req.bindJSONToList(EasyAntInstallation.class,
                     json.get("inst")).toArray(new EasyAntInstallation[0]);
+            installationsChanged();
             save();
             return true;
         }
 
+        /**
+         * Gets the cache of the executables resolved on the nodes.
+         */
+        public EasyAntExecutableCache getExecutableCache() {
+            return EasyAntExecutableCache.get();
+        }
+
+        /**
+         * Serves the metrics of the plugin, in the Prometheus text format or,
+         * with format=json, in JSON.
+         */
+        public void doMetrics(StaplerRequest req, StaplerResponse rsp)
+                throws IOException {
+            Hudson.getInstance().checkPermission(Hudson.READ);
+            EasyAntMetrics metrics = EasyAntMetrics.get();
+            EasyAntExecutableCache cache = EasyAntExecutableCache.get();
+            // the hits and misses are counted by the caches
+            metrics.gauge("easyant_executable_cache_entries",
+                    "Executables cached by node and installation").set(
+                    cache.getSize());
+            EasyAntInstallationCache installations = EasyAntInstallationCache
+                    .get();
+            metrics.gauge("easyant_installation_cache_entries",
+                    "Installations cached by node and environment").set(
+                    installations.getSize());
+
+            if ("json".equals(req.getParameter("format"))) {
+                rsp.setContentType("application/json;charset=UTF-8");
+                metrics.writeJson(rsp.getWriter());
+            } else {
+                rsp.setContentType("text/plain;version=0.0.4;charset=UTF-8");
+                metrics.writePrometheus(rsp.getWriter());
+            }
+        }
+
         @Override
         public EasyAnt newInstance(StaplerRequest req, JSONObject formData)
                 throws FormException {
@@ -0,0 +1,44 @@
+package hudson.plugins.easyant;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.FilePath;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+
+/**
+ * Stores the outputs of EasyAnt steps by the fingerprint of their inputs, so
+ * that a step whose inputs were already built can restore its outputs instead
+ * of running.
+ * 
+ * The implementation with the highest ordinal is used; the plugin provides
+ * {@link EasyAntMasterBuildCache}.
+ */
+public abstract class EasyAntBuildCache implements ExtensionPoint {
+    /**
+     * Restores the outputs stored under the given key into the directory.
+     * 
+     * @return the number of bytes restored, or -1 if nothing is stored under
+     *         the key.
+     */
+    public abstract long restore(String key, FilePath dir, TaskListener log)
+            throws IOException, InterruptedException;
+
+    /**
+     * Stores the files of the directory matching the Ant-style patterns under
+     * the given key. Nothing is stored when no file matches, as restoring
+     * nothing would skip the step without its outputs.
+     * 
+     * @return the number of bytes stored, or -1 if no file matches.
+     */
+    public abstract long store(String key, FilePath dir, String includes,
+            TaskListener log) throws IOException, InterruptedException;
+
+    public static EasyAntBuildCache get() {
+        ExtensionList<EasyAntBuildCache> all = Hudson.getInstance()
+                .getExtensionList(EasyAntBuildCache.class);
+        return all.isEmpty() ? null : all.get(0);
+    }
+}
@@ -0,0 +1,80 @@
+package hudson.plugins.easyant;
+
+import hudson.model.Action;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Shows, on the build page, how many EasyAnt steps of the build restored
+ * their outputs from the {@link EasyAntBuildCache}.
+ */
+@ExportedBean
+public class EasyAntBuildCacheAction implements Action {
+    private int hits;
+    private int misses;
+    private long restoredBytes;
+    private long storedBytes;
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return Messages.EasyAntBuildCacheAction_DisplayName();
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    @Exported
+    public int getHits() {
+        return hits;
+    }
+
+    @Exported
+    public int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Percentage of the steps whose outputs were restored.
+     */
+    @Exported
+    public int getHitRatio() {
+        int total = hits + misses;
+        return total == 0 ? 0 : hits * 100 / total;
+    }
+
+    @Exported
+    public long getRestoredBytes() {
+        return restoredBytes;
+    }
+
+    @Exported
+    public long getStoredBytes() {
+        return storedBytes;
+    }
+
+    public long getRestoredKilobytes() {
+        return restoredBytes / 1024;
+    }
+
+    public long getStoredKilobytes() {
+        return storedBytes / 1024;
+    }
+
+    synchronized void hit(long bytes) {
+        hits++;
+        restoredBytes += bytes;
+    }
+
+    synchronized void miss() {
+        misses++;
+    }
+
+    synchronized void stored(long bytes) {
+        storedBytes += bytes;
+    }
+}
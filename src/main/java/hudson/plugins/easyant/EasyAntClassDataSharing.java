@@ -0,0 +1,255 @@
+package hudson.plugins.easyant;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application class data sharing archive of an EasyAnt installation on a
+ * node, which lets the EasyAnt JVM map the classes of EasyAnt, Ant and Ivy
+ * instead of loading them.
+ *
+ * The first step run with an installation dumps the classes it loaded into
+ * the archive when its JVM exits (-XX:ArchiveClassesAtExit, Java 13 or later,
+ * which is checked in the flags of the JVM); the next ones use it. The archive
+ * is made again when the content of the lib directory of the installation
+ * changes. Each JAVA_HOME has its own archives, in its own directory. JVMs
+ * which do not write the archive are remembered, so that they are not asked
+ * again.
+ *
+ * The time saved is estimated from the time to the first target, with and
+ * without the archive.
+ */
+final class EasyAntClassDataSharing {
+    /**
+     * The archive exists and is used.
+     */
+    private static final String USE = "use";
+    /**
+     * The archive is written when the JVM exits.
+     */
+    private static final String DUMP = "dump";
+    /**
+     * The JVM does not write archives.
+     */
+    private static final String UNSUPPORTED = "unsupported";
+
+    /**
+     * Age after which an archive being written is considered abandoned by its
+     * JVM, in milliseconds.
+     */
+    private static final long ABANDONED = TimeUnit.DAYS.toMillis(1);
+
+    private final FilePath dir;
+    private final String mode;
+    private final String archive;
+    /**
+     * Time to the first target without the archive, in milliseconds, or -1.
+     */
+    private final long baseline;
+
+    private long startup = -1;
+
+    private EasyAntClassDataSharing(FilePath dir, String[] state) {
+        this.dir = dir;
+        this.mode = state[0];
+        this.archive = state[1];
+        this.baseline = Long.parseLong(state[2]);
+    }
+
+    /**
+     * Finds the archive of the installation on the node and adds the options
+     * using or writing it to EASYANT_OPTS.
+     *
+     * @return null if the JVM of the node does not write archives.
+     */
+    static EasyAntClassDataSharing prepare(Node node,
+            EasyAntInstallation installation, EnvVars env) throws IOException,
+            InterruptedException {
+        Set<String> flags = EasyAntJvmProfile.getFlags(node, env);
+        if (!flags.contains("ArchiveClassesAtExit")
+                || !flags.contains("SharedArchiveFile"))
+            return null;
+        FilePath dir = node.getRootPath().child("easyant/cds").child(
+                Util.getDigestOf(installation.getHome())).child(
+                Util.getDigestOf(String.valueOf(env.get("JAVA_HOME"))));
+        String[] state = dir.act(new Prepare(installation.getHome()));
+        if (state[0].equals(UNSUPPORTED))
+            return null;
+
+        String option = state[0].equals(USE) ? "-XX:SharedArchiveFile="
+                + state[1] + " -Xshare:auto" : "-XX:ArchiveClassesAtExit="
+                + state[1];
+        String opts = env.get("EASYANT_OPTS");
+        env.put("EASYANT_OPTS", (opts == null ? "" : opts + ' ') + option);
+        return new EasyAntClassDataSharing(dir, state);
+    }
+
+    /**
+     * Sets the time from the launch of EasyAnt to its first target.
+     */
+    void setStartup(long millis) {
+        this.startup = millis;
+    }
+
+    /**
+     * Keeps the archive written by a successful step, and reports the time
+     * saved by using it.
+     */
+    void finish(boolean success, TaskListener listener) throws IOException,
+            InterruptedException {
+        if (startup >= 0)
+            EasyAntMetrics.get().histogram("easyant_startup_seconds",
+                    "Time from the launch of EasyAnt to its first target",
+                    "cds", mode.equals(USE) ? "on" : "off").observe(
+                    TimeUnit.MILLISECONDS.toNanos(startup));
+
+        if (mode.equals(USE)) {
+            if (startup >= 0 && baseline >= 0)
+                listener.getLogger().println(
+                        Messages.EasyAnt_CdsUsed(startup, baseline, baseline
+                                - startup));
+            return;
+        }
+        boolean created = dir.act(new Commit(archive, success, startup));
+        if (created)
+            listener.getLogger().println(Messages.EasyAnt_CdsCreated(archive));
+    }
+
+    /**
+     * Gets the state of the archive: the mode, the archive to use or write,
+     * and the baseline.
+     */
+    private static final class Prepare implements FileCallable<String[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final String home;
+
+        Prepare(String home) {
+            this.home = home;
+        }
+
+        public String[] invoke(File dir, VirtualChannel channel)
+                throws IOException {
+            String key = key();
+            File archive = new File(dir, key + ".jsa");
+            if (archive.exists())
+                return new String[] { USE, archive.getPath(),
+                        readBaseline(new File(dir, key + ".baseline")) };
+            if (new File(dir, key + ".unsupported").exists())
+                return new String[] { UNSUPPORTED, null, "-1" };
+
+            // the archives of other contents are stale, but may still be
+            // written by the JVM of a running step
+            long now = System.currentTimeMillis();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (!f.getName().startsWith(key)
+                            && (!f.getName().endsWith(".tmp") || now
+                                    - f.lastModified() > ABANDONED))
+                        f.delete();
+                }
+            }
+            dir.mkdirs();
+            // steps may run at once on the node
+            File tmp = File.createTempFile(key + '-', ".jsa.tmp", dir);
+            return new String[] { DUMP, tmp.getPath(), "-1" };
+        }
+
+        /**
+         * Digests the names, sizes and dates of the libraries.
+         */
+        private String key() {
+            StringBuilder b = new StringBuilder();
+            File[] libs = new File(home, "lib").listFiles();
+            if (libs != null) {
+                Arrays.sort(libs);
+                for (File f : libs)
+                    b.append('|').append(f.getName()).append(':').append(
+                            f.length()).append(':').append(f.lastModified());
+            }
+            return Util.getDigestOf(b.toString());
+        }
+
+        private static String readBaseline(File f) throws IOException {
+            if (!f.exists())
+                return "-1";
+            BufferedReader r = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(f), "UTF-8"));
+            try {
+                String line = r.readLine();
+                // written by a step which did not finish
+                if (line == null || line.trim().length() == 0)
+                    return "-1";
+                return line.trim();
+            } finally {
+                r.close();
+            }
+        }
+    }
+
+    /**
+     * Moves the archive written by the JVM in place, with the baseline, or
+     * remembers that the JVM did not write any.
+     */
+    private static final class Commit implements FileCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final String tmp;
+        private final boolean success;
+        private final long startup;
+
+        Commit(String tmp, boolean success, long startup) {
+            this.tmp = tmp;
+            this.success = success;
+            this.startup = startup;
+        }
+
+        public Boolean invoke(File dir, VirtualChannel channel)
+                throws IOException {
+            File written = new File(tmp);
+            String name = written.getName();
+            String key = name.substring(0, name.indexOf('-'));
+            try {
+                if (!success)
+                    return false;
+                if (written.length() == 0) {
+                    write(new File(dir, key + ".unsupported"), "");
+                    return false;
+                }
+                File archive = new File(dir, key + ".jsa");
+                write(new File(dir, key + ".baseline"), String
+                        .valueOf(startup));
+                // another step may have been faster
+                return written.renameTo(archive);
+            } finally {
+                written.delete();
+            }
+        }
+
+        private static void write(File f, String content) throws IOException {
+            OutputStream out = new FileOutputStream(f);
+            try {
+                out.write(content.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
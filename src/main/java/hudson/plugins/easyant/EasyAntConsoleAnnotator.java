@@ -1,45 +1,260 @@
 package hudson.plugins.easyant;
 
+import hudson.console.ConsoleNote;
 import hudson.console.LineTransformationOutputStream;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 /**
  * Filter {@link OutputStream} that places an annotation that marks EasyAnt
  * target
- * 
+ *
+ * The lines and notes are collected in a buffer, written out at the end of
+ * each chunk of output, when it is full, and when the stream is flushed, so
+ * that the underlying stream sees one write per chunk instead of one or two
+ * per line.
  */
 public class EasyAntConsoleAnnotator extends LineTransformationOutputStream {
+    private static final byte[] BUILD_SUCCESSFUL = ascii("BUILD SUCCESSFUL");
+    private static final byte[] BUILD_FAILED = ascii("BUILD FAILED");
+
+    /**
+     * Characters which must be encoded exactly as in US-ASCII for the byte
+     * level scanner to be used.
+     */
+    private static final String PROBE = "BUILD SUCCESSFUL FAILED :\r\n";
+
+    /**
+     * Size over which the buffer is written out even in the middle of a chunk.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The encoded notes, as they do not have any state.
+     */
+    private static volatile byte[] targetNote;
+    private static volatile byte[] outcomeNote;
+
     private final OutputStream out;
     private final Charset charset;
 
+    /**
+     * True if lines can be matched directly on the raw bytes, without decoding
+     * them.
+     */
+    private final boolean asciiCompatible;
+
+    private final EasyAntConsoleListener[] listeners;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+            BUFFER_SIZE);
+
     private boolean seenEmptyLine;
 
-    public EasyAntConsoleAnnotator(OutputStream out, Charset charset) {
+    /**
+     * Number of bytes written so far, console notes included.
+     */
+    private long position;
+
+    private long lines;
+    private long targets;
+    private long writes;
+
+    public EasyAntConsoleAnnotator(OutputStream out, Charset charset,
+            EasyAntConsoleListener... listeners) {
         this.out = out;
         this.charset = charset;
+        this.asciiCompatible = isAsciiCompatible(charset);
+        this.listeners = listeners;
     }
 
     @Override
     protected void eol(byte[] b, int len) throws IOException {
+        if (asciiCompatible)
+            scanBytes(b, len);
+        else
+            scanChars(b, len);
+        emit(b, len);
+        lines++;
+        for (EasyAntConsoleListener l : listeners)
+            l.onLine(b, len);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        super.write(b);
+        if (b == '\n')
+            flushBuffer();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        // the lines of the chunk go out at once
+        for (int i = off; i < end; i++)
+            super.write(b[i]);
+        flushBuffer();
+    }
+
+    @Override
+    public void forceEol() throws IOException {
+        super.forceEol();
+        flushBuffer();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes out the last incomplete line, if any, and tells the listeners
+     * that the output is complete.
+     */
+    public void end() throws IOException {
+        finish();
+        // published once, to keep the per line cost unchanged
+        publish(lines, position, targets, writes);
+    }
+
+    /**
+     * Same as {@link #end()}, without publishing the metrics, for annotators
+     * running on a node.
+     */
+    void finish() throws IOException {
+        forceEol();
+        for (EasyAntConsoleListener l : listeners)
+            l.onEnd(position);
+    }
+
+    /**
+     * Adds the counts of an annotator to the metrics of the plugin.
+     */
+    static void publish(long lines, long position, long targets, long writes) {
+        EasyAntMetrics metrics = EasyAntMetrics.get();
+        metrics.counter("easyant_annotator_lines_total",
+                "Lines of EasyAnt output annotated").add(lines);
+        metrics.counter("easyant_annotator_bytes_total",
+                "Bytes written by the annotator, console notes included").add(
+                position);
+        metrics.counter("easyant_annotator_targets_total",
+                "EasyAnt targets found in the output").add(targets);
+        metrics.counter("easyant_annotator_writes_total",
+                "Writes of the annotator to the build log").add(writes);
+    }
+
+    long getLines() {
+        return lines;
+    }
+
+    /**
+     * Gets the number of bytes written so far, console notes included.
+     */
+    long getPosition() {
+        return position;
+    }
+
+    long getTargets() {
+        return targets;
+    }
+
+    long getWrites() {
+        return writes;
+    }
+
+    private void target(String name) throws IOException {
+        targets++;
+        for (EasyAntConsoleListener l : listeners)
+            l.onTarget(name, position);
+        // put the annotation
+        byte[] note = targetNote;
+        if (note == null)
+            targetNote = note = encode(new EasyAntTargetNote());
+        emit(note, note.length);
+    }
+
+    private void outcome(boolean success) throws IOException {
+        for (EasyAntConsoleListener l : listeners)
+            l.onOutcome(success, position);
+        byte[] note = outcomeNote;
+        if (note == null)
+            outcomeNote = note = encode(new EasyAntOutcomeNote());
+        emit(note, note.length);
+    }
+
+    private static byte[] encode(ConsoleNote note) throws IOException {
+        return note.encodeToBytes().toByteArray();
+    }
+
+    private void emit(byte[] b, int len) throws IOException {
+        if (buffer.size() + len > BUFFER_SIZE)
+            flushBuffer();
+        if (len >= BUFFER_SIZE) {
+            out.write(b, 0, len);
+            writes++;
+        } else {
+            buffer.write(b, 0, len);
+        }
+        position += len;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.size() > 0) {
+            buffer.writeTo(out);
+            buffer.reset();
+            writes++;
+        }
+    }
+
+    /**
+     * Matches target and outcome lines on the raw bytes. Only used when the
+     * charset encodes ASCII characters as single ASCII bytes, so that ':', ' '
+     * and the outcome prefixes cannot be part of a multi-byte sequence.
+     */
+    private void scanBytes(byte[] b, int len) throws IOException {
+        // trim off CR/LF from the end
+        int end = len;
+        while (end > 0 && (b[end - 1] == '\n' || b[end - 1] == '\r'))
+            end--;
+
+        if (seenEmptyLine && end > 0 && b[end - 1] == ':'
+                && indexOf(b, end, (byte) ' ') < 0)
+            // only decode the lines we annotate
+            target(charset.decode(ByteBuffer.wrap(b, 0, end - 1)).toString());
+
+        if (startsWith(b, end, BUILD_SUCCESSFUL))
+            outcome(true);
+        else if (startsWith(b, end, BUILD_FAILED))
+            outcome(false);
+
+        seenEmptyLine = end == 0;
+    }
+
+    /**
+     * Fallback for encodings which are not ASCII compatible (UTF-16, EBCDIC,
+     * ...): decodes the line before matching it.
+     */
+    private void scanChars(byte[] b, int len) throws IOException {
         String line = charset.decode(ByteBuffer.wrap(b, 0, len)).toString();
 
         // trim off CR/LF from the end
         line = trimEOL(line);
 
         if (seenEmptyLine && endsWith(line, ':') && line.indexOf(' ') < 0)
-            // put the annotation
-            new EasyAntTargetNote().encodeTo(out);
+            target(line.substring(0, line.length() - 1));
 
-        if (line.startsWith("BUILD SUCCESSFUL")
-                || line.startsWith("BUILD FAILED"))
-            new EasyAntOutcomeNote().encodeTo(out);
+        if (line.startsWith("BUILD SUCCESSFUL"))
+            outcome(true);
+        else if (line.startsWith("BUILD FAILED"))
+            outcome(false);
 
         seenEmptyLine = line.length() == 0;
-        out.write(b, 0, len);
     }
 
     private boolean endsWith(String line, char c) {
@@ -47,6 +262,44 @@ public class EasyAntConsoleAnnotator extends LineTransformationOutputStream {
         return len > 0 && line.charAt(len - 1) == c;
     }
 
+    private static boolean startsWith(byte[] b, int len, byte[] prefix) {
+        if (len < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] b, int len, byte c) {
+        for (int i = 0; i < len; i++) {
+            if (b[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the given charset encodes the characters we look for the
+     * same way US-ASCII does.
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        if (!charset.canEncode())
+            return false;
+        ByteBuffer encoded = charset.encode(PROBE);
+        byte[] actual = new byte[encoded.remaining()];
+        encoded.get(actual);
+        return Arrays.equals(actual, ascii(PROBE));
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++)
+            b[i] = (byte) s.charAt(i);
+        return b;
+    }
+
     @Override
     public void close() throws IOException {
         super.close();
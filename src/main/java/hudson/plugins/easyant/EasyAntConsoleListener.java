@@ -0,0 +1,39 @@
+package hudson.plugins.easyant;
+
+/**
+ * Receives the events detected by {@link EasyAntConsoleAnnotator} while the
+ * EasyAnt output is written to the build log.
+ * 
+ * Positions are byte offsets in the stream written by the annotator, console
+ * notes included.
+ */
+public abstract class EasyAntConsoleListener {
+
+    /**
+     * Called before the line which starts a new EasyAnt target is written.
+     */
+    public void onTarget(String name, long position) {
+    }
+
+    /**
+     * Called before the BUILD SUCCESSFUL/FAILED line is written.
+     */
+    public void onOutcome(boolean success, long position) {
+    }
+
+    /**
+     * Called for every line written, including target and outcome lines.
+     * 
+     * @param b
+     *            the line, including its line terminator. The array is reused
+     *            once this method returns.
+     */
+    public void onLine(byte[] b, int len) {
+    }
+
+    /**
+     * Called once all the output has been written.
+     */
+    public void onEnd(long position) {
+    }
+}
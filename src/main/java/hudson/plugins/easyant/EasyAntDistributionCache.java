@@ -0,0 +1,183 @@
+package hudson.plugins.easyant;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+import hudson.util.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Copies of the EasyAnt distributions kept on the master, so that each
+ * distribution is downloaded once and then sent to the nodes over their
+ * channel.
+ *
+ * A download is verified against the checksum published next to it (as
+ * Apache does, in a .sha512, .sha256, .sha1 or .md5 file), when there is one.
+ * Any URL supported by {@link URL} can be used, including file: URLs.
+ */
+final class EasyAntDistributionCache {
+    /**
+     * Checksum files looked for next to a distribution, by order of
+     * preference, with their digest algorithm.
+     */
+    private static final String[][] CHECKSUMS = { { "sha512", "SHA-512" },
+            { "sha256", "SHA-256" }, { "sha1", "SHA-1" }, { "md5", "MD5" } };
+
+    private static final EasyAntKeyedLock LOCKS = new EasyAntKeyedLock();
+
+    private EasyAntDistributionCache() {
+    }
+
+    /**
+     * A distribution in the cache.
+     */
+    static final class Distribution {
+        private final File archive;
+        private final String checksum;
+
+        Distribution(File archive, String checksum) {
+            this.archive = archive;
+            this.checksum = checksum;
+        }
+
+        File getArchive() {
+            return archive;
+        }
+
+        /**
+         * Gets the digest of the archive, as "algorithm:hex".
+         */
+        String getChecksum() {
+            return checksum;
+        }
+
+        boolean isZip() {
+            return archive.getName().endsWith(".zip");
+        }
+    }
+
+    /**
+     * Gets the distribution at the given URL, downloading it first if it is
+     * not in the cache. Concurrent calls for the same URL download it once.
+     */
+    static Distribution get(URL url, TaskListener log) throws IOException,
+            InterruptedException {
+        File dir = new File(new File(Hudson.getInstance().getRootDir(),
+                "caches/easyant"), Util.getDigestOf(url.toExternalForm()));
+        String name = url.getPath().substring(
+                url.getPath().lastIndexOf('/') + 1);
+        File archive = new File(dir, name.length() == 0 ? "easyant.zip"
+                : name);
+        FilePath checksumFile = new FilePath(new File(dir, "checksum"));
+
+        String key = url.toExternalForm();
+        LOCKS.lock(key);
+        try {
+            if (archive.exists() && checksumFile.exists())
+                return new Distribution(archive, checksumFile.readToString()
+                        .trim());
+
+            dir.mkdirs();
+            String[] expected = fetchChecksum(url);
+            String algorithm = expected != null ? expected[0] : "SHA-256";
+            if (expected == null)
+                log.getLogger().println(
+                        Messages.EasyAntInstaller_NoChecksum(url));
+
+            log.getLogger().println(Messages.EasyAntInstaller_Downloading(url));
+            File tmp = new File(dir, archive.getName() + ".tmp");
+            String actual = download(url, tmp, algorithm);
+            if (expected != null && !expected[1].equalsIgnoreCase(actual)) {
+                tmp.delete();
+                throw new IOException(Messages.EasyAntInstaller_ChecksumMismatch(
+                        url, expected[1], actual));
+            }
+            String checksum = algorithm + ':' + actual;
+            archive.delete();
+            if (!tmp.renameTo(archive))
+                throw new IOException("Failed to rename " + tmp + " to "
+                        + archive);
+            // written last: a distribution without checksum is downloaded again
+            checksumFile.write(checksum, "UTF-8");
+            return new Distribution(archive, checksum);
+        } finally {
+            LOCKS.unlock(key);
+        }
+    }
+
+    /**
+     * Downloads the URL to the given file.
+     *
+     * @return the hexadecimal digest of the content.
+     */
+    private static String download(URL url, File file, String algorithm)
+            throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        InputStream in = new DigestInputStream(url.openStream(), digest);
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                IOUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return Util.toHexString(digest.digest());
+    }
+
+    /**
+     * Gets the checksum published for the URL.
+     *
+     * @return the digest algorithm and the expected hexadecimal digest, or
+     *         null if no checksum is published.
+     */
+    private static String[] fetchChecksum(URL url) {
+        for (String[] c : CHECKSUMS) {
+            String content;
+            try {
+                InputStream in = new URL(url.toExternalForm() + '.' + c[0])
+                        .openStream();
+                try {
+                    content = IOUtils.toString(in, "UTF-8");
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                continue;
+            }
+            String hex = parseChecksum(content);
+            if (hex != null)
+                return new String[] { c[1], hex };
+        }
+        return null;
+    }
+
+    /**
+     * Extracts the digest from a checksum file, either "digest [file]" as
+     * written by the *sum tools, or "file: DI GE ST" as written by gpg.
+     */
+    static String parseChecksum(String content) {
+        content = content.trim();
+        int colon = content.indexOf(':');
+        String hex = colon >= 0 ? content.substring(colon + 1).replaceAll(
+                "\\s+", "") : content.split("\\s+")[0];
+        return hex.matches("[0-9a-fA-F]{32,}") ? hex.toLowerCase() : null;
+    }
+}
@@ -0,0 +1,217 @@
+package hudson.plugins.easyant;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ArgumentListBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.sf.json.JSONObject;
+
+/**
+ * Side channel through which EasyAnt reports its build events, written by
+ * {@link EasyAntEventLogger} to a file of the node and read by the master once
+ * EasyAnt exits. The targets and their offsets in the build log still come
+ * from {@link EasyAntConsoleAnnotator}: the events only give their exact
+ * timings, and the targets which printed nothing.
+ */
+final class EasyAntEventChannel {
+    private static byte[] listenerJar;
+
+    private final FilePath jar;
+    private final FilePath file;
+
+    /**
+     * Added to the times of the events, taken with the clock of the node, to
+     * get times of the master.
+     */
+    private final long clockDelta;
+
+    private final List<EasyAntTarget> targets = new ArrayList<EasyAntTarget>();
+    private final Map<String, EasyAntTarget> running = new HashMap<String, EasyAntTarget>();
+    private int warnings;
+    private String outcome;
+
+    private EasyAntEventChannel(FilePath jar, FilePath file, long clockDelta) {
+        this.jar = jar;
+        this.file = file;
+        this.clockDelta = clockDelta;
+    }
+
+    /**
+     * Copies the listener to the node, if needed, and creates the events file.
+     * 
+     * @param clockDelta
+     *            the time of the master minus the time of the node
+     */
+    static EasyAntEventChannel open(Node node, long clockDelta)
+            throws IOException,
+            InterruptedException {
+        FilePath dir = node.getRootPath().child("easyant");
+        dir.mkdirs();
+        byte[] bytes = getListenerJar();
+        // the name changes with the listener, so an existing jar is up-to-date
+        FilePath jar = dir.child("easyant-events-"
+                + Util.getDigestOf(new ByteArrayInputStream(bytes)) + ".jar");
+        if (!jar.exists())
+            jar.copyFrom(new ByteArrayInputStream(bytes));
+        return new EasyAntEventChannel(jar, dir.createTempFile("events",
+                ".json"), clockDelta);
+    }
+
+    /**
+     * Adds the arguments which make EasyAnt report its events to this channel.
+     */
+    void addArguments(ArgumentListBuilder args) {
+        args.add("-lib", jar.getRemote());
+        args.add("-listener", EasyAntEventLogger.class.getName());
+        args.addKeyValuePair("-D", EasyAntEventLogger.FILE_PROPERTY,
+                file.getRemote(), false);
+    }
+
+    /**
+     * Reads the events and removes the events file.
+     */
+    synchronized void stop() throws IOException, InterruptedException {
+        long offset = 0;
+        byte[] chunk;
+        do {
+            chunk = file.act(new Tail(offset));
+            offset += chunk.length;
+            int start = 0;
+            for (int i = 0; i < chunk.length; i++) {
+                if (chunk[i] == '\n') {
+                    onEvent(new String(chunk, start, i - start, "UTF-8"));
+                    start = i + 1;
+                }
+            }
+        } while (chunk.length > 0);
+        file.delete();
+    }
+
+    private void onEvent(String line) {
+        JSONObject event;
+        try {
+            event = JSONObject.fromObject(line);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Malformed event " + line, e);
+            return;
+        }
+        String type = event.getString("e");
+        long time = event.getLong("t") + clockDelta;
+        if ("targetStarted".equals(type)) {
+            EasyAntTarget t = new EasyAntTarget(event.getString("target"), -1,
+                    time);
+            targets.add(t);
+            running.put(t.getName(), t);
+        } else if ("targetFinished".equals(type)) {
+            EasyAntTarget t = running.remove(event.getString("target"));
+            if (t != null)
+                t.end(time);
+        } else if ("warning".equals(type)) {
+            warnings++;
+        } else if ("buildFinished".equals(type)) {
+            outcome = event.getString("outcome");
+        }
+    }
+
+    /**
+     * Gets the targets reported by EasyAnt, with their exact timings, in the
+     * time of the master.
+     */
+    synchronized List<EasyAntTarget> getTargets() {
+        return new ArrayList<EasyAntTarget>(targets);
+    }
+
+    synchronized int getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * Gets SUCCESS or FAILURE, or null if the build did not finish.
+     */
+    synchronized String getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Builds a jar containing only {@link EasyAntEventLogger}.
+     */
+    private static synchronized byte[] getListenerJar() throws IOException {
+        if (listenerJar == null) {
+            String name = EasyAntEventLogger.class.getName().replace('.', '/')
+                    + ".class";
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            JarOutputStream jar = new JarOutputStream(buf);
+            jar.putNextEntry(new JarEntry(name));
+            InputStream in = EasyAntEventLogger.class.getClassLoader()
+                    .getResourceAsStream(name);
+            try {
+                Util.copyStream(in, jar);
+            } finally {
+                in.close();
+            }
+            jar.closeEntry();
+            jar.close();
+            listenerJar = buf.toByteArray();
+        }
+        return listenerJar;
+    }
+
+    /**
+     * Reads the complete lines of the file after the given offset.
+     */
+    private static final class Tail implements FileCallable<byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        static final int MAX_CHUNK = 1024 * 1024;
+
+        private final long offset;
+
+        Tail(long offset) {
+            this.offset = offset;
+        }
+
+        public byte[] invoke(File f, VirtualChannel channel)
+                throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                long available = raf.length() - offset;
+                if (available <= 0)
+                    return new byte[0];
+                byte[] buf = new byte[(int) Math.min(available, MAX_CHUNK)];
+                raf.seek(offset);
+                raf.readFully(buf);
+                int end = buf.length;
+                while (end > 0 && buf[end - 1] != '\n')
+                    end--;
+                if (end == buf.length)
+                    return buf;
+                byte[] lines = new byte[end];
+                System.arraycopy(buf, 0, lines, 0, end);
+                return lines;
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger
+            .getLogger(EasyAntEventChannel.class.getName());
+}
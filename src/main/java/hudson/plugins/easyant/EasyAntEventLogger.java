@@ -0,0 +1,158 @@
+package hudson.plugins.easyant;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+
+/**
+ * Ant {@link BuildListener} run inside the EasyAnt JVM, which writes the build
+ * events as line-delimited JSON to the file named by the
+ * <tt>easyant.events.file</tt> property.
+ * 
+ * This class is copied to the nodes on its own (see
+ * {@link EasyAntEventChannel}), so it must only depend on Ant and the JDK.
+ */
+public class EasyAntEventLogger implements BuildListener {
+    public static final String FILE_PROPERTY = "easyant.events.file";
+
+    /**
+     * Tasks shorter than this, in ms, are not reported.
+     */
+    private static final long MIN_TASK_DURATION = 100;
+
+    private Writer out;
+
+    /**
+     * Start time of the running tasks. Tasks may be nested, or run in
+     * parallel.
+     */
+    private final Map<Object, Long> taskStarts = new IdentityHashMap<Object, Long>();
+
+    private Writer out(BuildEvent event) {
+        if (out == null) {
+            String file = System.getProperty(FILE_PROPERTY);
+            if (file == null && event.getProject() != null)
+                file = event.getProject().getProperty(FILE_PROPERTY);
+            if (file == null)
+                return null;
+            try {
+                out = new OutputStreamWriter(new FileOutputStream(file, true),
+                        "UTF-8");
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return out;
+    }
+
+    private synchronized void write(BuildEvent event, String type, String key,
+            String value, String extra) {
+        Writer w = out(event);
+        if (w == null)
+            return;
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"t\":").append(System.currentTimeMillis());
+        sb.append(",\"e\":\"").append(type).append('"');
+        if (key != null)
+            sb.append(",\"").append(key).append("\":").append(quote(value));
+        if (extra != null)
+            sb.append(',').append(extra);
+        if (event.getException() != null)
+            sb.append(",\"error\":").append(
+                    quote(String.valueOf(event.getException().getMessage())));
+        sb.append("}\n");
+        try {
+            w.write(sb.toString());
+            // the file is read while the build runs
+            w.flush();
+        } catch (IOException e) {
+            // never fail the build because of the events
+        }
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':
+            case '\\':
+                sb.append('\\').append(c);
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20)
+                    sb.append(String.format("\\u%04x", (int) c));
+                else
+                    sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public void buildStarted(BuildEvent event) {
+        write(event, "buildStarted", null, null, null);
+    }
+
+    public synchronized void buildFinished(BuildEvent event) {
+        write(event, "buildFinished", "outcome",
+                event.getException() == null ? "SUCCESS" : "FAILURE", null);
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            out = null;
+        }
+    }
+
+    public void targetStarted(BuildEvent event) {
+        write(event, "targetStarted", "target", event.getTarget().getName(),
+                null);
+    }
+
+    public void targetFinished(BuildEvent event) {
+        write(event, "targetFinished", "target", event.getTarget().getName(),
+                null);
+    }
+
+    public void taskStarted(BuildEvent event) {
+        synchronized (taskStarts) {
+            taskStarts.put(event.getTask(), System.currentTimeMillis());
+        }
+    }
+
+    public void taskFinished(BuildEvent event) {
+        Long start;
+        synchronized (taskStarts) {
+            start = taskStarts.remove(event.getTask());
+        }
+        if (start == null)
+            return;
+        long duration = System.currentTimeMillis() - start;
+        if (duration >= MIN_TASK_DURATION)
+            write(event, "taskFinished", "task", event.getTask()
+                    .getTaskName(), "\"duration\":" + duration);
+    }
+
+    public void messageLogged(BuildEvent event) {
+        if (event.getPriority() == Project.MSG_WARN)
+            write(event, "warning", "message", event.getMessage(), null);
+    }
+}
@@ -0,0 +1,131 @@
+package hudson.plugins.easyant;
+
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers where the EasyAnt executable of an installation was found on each
+ * node, so that builds do not have to probe the node for it every time.
+ * 
+ * Entries are dropped when the installations are reconfigured, when the node
+ * (re)connects, and when launching the executable fails.
+ */
+public final class EasyAntExecutableCache {
+    private static final EasyAntExecutableCache INSTANCE = new EasyAntExecutableCache();
+
+    private final ConcurrentMap<Key, String> executables = new ConcurrentHashMap<Key, String>();
+
+    private final EasyAntMetrics.Counter hits = EasyAntMetrics.get()
+            .counter("easyant_executable_cache_hits_total",
+                    "Executable lookups answered by the cache");
+    private final EasyAntMetrics.Counter misses = EasyAntMetrics.get()
+            .counter("easyant_executable_cache_misses_total",
+                    "Executable lookups which had to probe the node");
+
+    private EasyAntExecutableCache() {
+    }
+
+    public static EasyAntExecutableCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the cached executable of the installation (already translated for
+     * the node) on the given node, or null if it is not known.
+     */
+    public String lookup(Node node, EasyAntInstallation installation) {
+        String exe = executables.get(new Key(node, installation));
+        if (exe != null)
+            hits.inc();
+        else
+            misses.inc();
+        return exe;
+    }
+
+    public void put(Node node, EasyAntInstallation installation, String exe) {
+        if (exe != null)
+            executables.put(new Key(node, installation), exe);
+    }
+
+    public void invalidate(Node node, EasyAntInstallation installation) {
+        executables.remove(new Key(node, installation));
+    }
+
+    public void invalidate(Node node) {
+        String name = node.getNodeName();
+        for (Key k : executables.keySet()) {
+            if (k.node.equals(name))
+                executables.remove(k);
+        }
+    }
+
+    public void invalidateAll() {
+        executables.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getSize() {
+        return executables.size();
+    }
+
+    private static final class Key {
+        private final String node;
+        private final String installation;
+        private final String home;
+
+        Key(Node node, EasyAntInstallation installation) {
+            this.node = node.getNodeName();
+            this.installation = installation.getName();
+            this.home = installation.getHome();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return node.equals(k.node) && installation.equals(k.installation)
+                    && home.equals(k.home);
+        }
+
+        @Override
+        public int hashCode() {
+            return (node.hashCode() * 31 + installation.hashCode()) * 31
+                    + home.hashCode();
+        }
+    }
+
+    /**
+     * The tools of a node may have been reinstalled or removed while it was
+     * disconnected.
+     */
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Node node = c.getNode();
+            if (node != null)
+                get().invalidate(node);
+        }
+
+        @Override
+        public void onOffline(Computer c) {
+            Node node = c.getNode();
+            if (node != null)
+                get().invalidate(node);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package hudson.plugins.easyant;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Shows why the EasyAnt steps of a build failed, from the excerpts recorded
+ * while the log was written.
+ */
+@ExportedBean
+public class EasyAntFailureAction implements Action {
+    public final AbstractBuild<?, ?> owner;
+
+    private final List<EasyAntFailureExcerpt> excerpts = new ArrayList<EasyAntFailureExcerpt>();
+
+    public EasyAntFailureAction(AbstractBuild<?, ?> owner) {
+        this.owner = owner;
+    }
+
+    public String getIconFileName() {
+        return "red.gif";
+    }
+
+    public String getDisplayName() {
+        return Messages.EasyAntFailureAction_DisplayName();
+    }
+
+    public String getUrlName() {
+        return "easyant-failure";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    @Exported
+    public synchronized List<EasyAntFailureExcerpt> getExcerpts() {
+        return Collections.unmodifiableList(new ArrayList<EasyAntFailureExcerpt>(
+                excerpts));
+    }
+
+    synchronized void add(EasyAntFailureExcerpt excerpt) {
+        excerpts.add(excerpt);
+    }
+}
@@ -0,0 +1,64 @@
+package hudson.plugins.easyant;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The lines of the build log explaining why an EasyAnt step failed, as
+ * recorded in the {@link EasyAntFailureAction}.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class EasyAntFailureExcerpt implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String target;
+    private final String location;
+    private final List<String> preceding;
+    private final List<String> stanza;
+
+    public EasyAntFailureExcerpt(String target, String location,
+            List<String> preceding, List<String> stanza) {
+        this.target = target;
+        this.location = location;
+        this.preceding = new ArrayList<String>(preceding);
+        this.stanza = new ArrayList<String>(stanza);
+    }
+
+    /**
+     * Gets the target which failed, or null if the failure happened before
+     * the first target.
+     */
+    @Exported
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Gets the file and line reported by Ant, or null if there is none.
+     */
+    @Exported
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the last lines of the failed target.
+     */
+    @Exported
+    public List<String> getPreceding() {
+        return Collections.unmodifiableList(preceding);
+    }
+
+    /**
+     * Gets the lines starting with BUILD FAILED.
+     */
+    @Exported
+    public List<String> getStanza() {
+        return Collections.unmodifiableList(stanza);
+    }
+}
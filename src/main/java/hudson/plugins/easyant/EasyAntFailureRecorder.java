@@ -0,0 +1,167 @@
+package hudson.plugins.easyant;
+
+import hudson.console.ConsoleNote;
+import hudson.model.AbstractBuild;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the last lines of the current EasyAnt target in a ring buffer and, if
+ * the build fails, turns them into an {@link EasyAntFailureExcerpt} so that
+ * the failure can be shown without reading the build log again.
+ * 
+ * Memory does not depend on the size of the log: at most {@link #LINES} lines
+ * of at most {@link #MAX_LINE_LENGTH} bytes are kept before the failure, and
+ * as many after it.
+ */
+public class EasyAntFailureRecorder extends EasyAntConsoleListener implements
+        Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of lines kept before and after the BUILD FAILED line.
+     */
+    public static int LINES = Integer.getInteger(
+            EasyAntFailureRecorder.class.getName() + ".lines", 50);
+
+    /**
+     * Longer lines are truncated.
+     */
+    static final int MAX_LINE_LENGTH = 1024;
+
+    /**
+     * Ant location of an error, as in "/path/to/build.xml:42: message".
+     */
+    private static final Pattern LOCATION = Pattern
+            .compile("^(\\S.*?:\\d+): ");
+
+    private final String prefix;
+    /**
+     * Name of the charset of the output, as recorders are sent to the nodes.
+     */
+    private final String charset;
+
+    private final byte[][] ring;
+    private final int[] lengths;
+    /**
+     * Index of the oldest line of the ring buffer.
+     */
+    private int first;
+    private int count;
+
+    private String target;
+
+    /**
+     * Lines preceding the failure, once it has been seen.
+     */
+    private List<String> preceding;
+    private final List<String> stanza = new ArrayList<String>();
+
+    private EasyAntFailureExcerpt excerpt;
+
+    public EasyAntFailureRecorder(String prefix, Charset charset) {
+        this.prefix = prefix;
+        this.charset = charset.name();
+        this.ring = new byte[LINES][];
+        this.lengths = new int[LINES];
+    }
+
+    @Override
+    public void onTarget(String name, long position) {
+        if (preceding == null) {
+            target = name;
+            count = 0;
+        }
+    }
+
+    @Override
+    public void onOutcome(boolean success, long position) {
+        if (!success && preceding == null) {
+            preceding = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                int j = (first + i) % ring.length;
+                preceding.add(decode(ring[j], lengths[j]));
+            }
+        }
+    }
+
+    @Override
+    public void onLine(byte[] b, int len) {
+        if (ring.length == 0)
+            return;
+        len = Math.min(len, MAX_LINE_LENGTH);
+        if (preceding != null) {
+            if (stanza.size() < ring.length)
+                stanza.add(decode(b, len));
+            return;
+        }
+        int j = (first + count) % ring.length;
+        if (count == ring.length)
+            first = (first + 1) % ring.length;
+        else
+            count++;
+        // reuse the arrays of the evicted lines
+        if (ring[j] == null || ring[j].length < len)
+            ring[j] = new byte[MAX_LINE_LENGTH];
+        System.arraycopy(b, 0, ring[j], 0, len);
+        lengths[j] = len;
+    }
+
+    @Override
+    public void onEnd(long position) {
+        if (preceding == null)
+            return;
+        String location = null;
+        for (String line : stanza) {
+            Matcher m = LOCATION.matcher(line);
+            if (m.find()) {
+                location = m.group(1);
+                break;
+            }
+        }
+        excerpt = new EasyAntFailureExcerpt(target == null ? null : prefix
+                + target, location, preceding, stanza);
+    }
+
+    private String decode(byte[] b, int len) {
+        String line = Charset.forName(charset).decode(
+                ByteBuffer.wrap(b, 0, len)).toString();
+        int end = line.length();
+        while (end > 0
+                && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r'))
+            end--;
+        return ConsoleNote.removeNotes(line.substring(0, end));
+    }
+
+    /**
+     * Gets the excerpt of the failure, or null if the build did not fail.
+     */
+    public EasyAntFailureExcerpt getExcerpt() {
+        return excerpt;
+    }
+
+    /**
+     * Adds the excerpt, if any, to the {@link EasyAntFailureAction} of the
+     * build.
+     */
+    public void save(AbstractBuild<?, ?> build) throws IOException {
+        if (excerpt == null)
+            return;
+        synchronized (build) {
+            EasyAntFailureAction action = build
+                    .getAction(EasyAntFailureAction.class);
+            if (action == null) {
+                action = new EasyAntFailureAction(build);
+                build.addAction(action);
+            }
+            action.add(excerpt);
+        }
+    }
+}
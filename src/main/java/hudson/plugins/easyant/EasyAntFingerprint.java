@@ -0,0 +1,149 @@
+package hudson.plugins.easyant;
+
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.DirectoryScanner;
+
+/**
+ * Computes, on the node, a fingerprint of everything an EasyAnt step depends
+ * on: the build module and build file, the files matching the input patterns
+ * and the command line. The files are hashed concurrently, and named by their
+ * path relative to the module root, so that the fingerprint does not depend on
+ * the node or the workspace.
+ */
+final class EasyAntFingerprint implements FileCallable<String> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Ant-style patterns of the input files, relative to the module root, or
+     * null.
+     */
+    private final String includes;
+
+    /**
+     * Absolute paths of other input files (build module, build file).
+     */
+    private final List<String> files;
+
+    /**
+     * Command line, targets and properties included.
+     */
+    private final List<String> command;
+
+    EasyAntFingerprint(String includes, List<String> files,
+            List<String> command) {
+        this.includes = includes;
+        this.files = files;
+        this.command = command;
+    }
+
+    public String invoke(File root, VirtualChannel channel) throws IOException,
+            InterruptedException {
+        // sorted, so that the fingerprint does not depend on the scan order
+        TreeMap<String, File> inputs = new TreeMap<String, File>();
+        for (String f : files)
+            inputs.put(relativize(root, new File(f)), new File(f));
+        if (includes != null) {
+            DirectoryScanner ds = new DirectoryScanner();
+            ds.setBasedir(root);
+            ds.setIncludes(includes.trim().split("[,\\s]+"));
+            ds.scan();
+            for (String f : ds.getIncludedFiles())
+                inputs.put(f.replace(File.separatorChar, '/'), new File(root,
+                        f));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime
+                .getRuntime().availableProcessors());
+        try {
+            List<Future<byte[]>> digests = new ArrayList<Future<byte[]>>();
+            for (final File f : inputs.values()) {
+                digests.add(executor.submit(new Callable<byte[]>() {
+                    public byte[] call() throws IOException {
+                        return digest(f);
+                    }
+                }));
+            }
+
+            MessageDigest md = newDigest();
+            for (String arg : command)
+                update(md, arg);
+            int i = 0;
+            for (String name : inputs.keySet()) {
+                update(md, name);
+                md.update(digests.get(i++).get());
+            }
+            return Util.toHexString(md.digest());
+        } catch (ExecutionException e) {
+            IOException ioe = new IOException("Failed to fingerprint inputs");
+            ioe.initCause(e.getCause());
+            throw ioe;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Gets the path of the file relative to the root, with / as separator,
+     * going up with .. for the files of the workspace outside the root.
+     */
+    static String relativize(File root, File f) {
+        String path = f.getAbsolutePath();
+        String up = "";
+        for (File dir = root.getAbsoluteFile(); dir != null; dir = dir
+                .getParentFile()) {
+            String prefix = dir.getPath().endsWith(File.separator) ? dir
+                    .getPath() : dir.getPath() + File.separatorChar;
+            if (path.startsWith(prefix))
+                return up
+                        + path.substring(prefix.length()).replace(
+                                File.separatorChar, '/');
+            up += "../";
+        }
+        return path;
+    }
+
+    private static void update(MessageDigest md, String s) throws IOException {
+        md.update(s.getBytes("UTF-8"));
+        md.update((byte) 0);
+    }
+
+    private static byte[] digest(File f) throws IOException {
+        MessageDigest md = newDigest();
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                md.update(buf, 0, n);
+        } finally {
+            in.close();
+        }
+        return md.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package hudson.plugins.easyant;
+
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the input fingerprints of the EasyAnt steps of a build, so that
+ * the next builds can skip the steps whose inputs did not change.
+ */
+public class EasyAntFingerprintAction implements Action {
+    /**
+     * Fingerprints by step.
+     */
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return null;
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    public synchronized String get(String step) {
+        return fingerprints.get(step);
+    }
+
+    synchronized void put(String step, String fingerprint) {
+        fingerprints.put(step, fingerprint);
+    }
+
+    /**
+     * Records the fingerprint of a step in the build.
+     */
+    static void record(AbstractBuild<?, ?> build, String step,
+            String fingerprint) {
+        EasyAntFingerprintAction action = build
+                .getAction(EasyAntFingerprintAction.class);
+        if (action == null) {
+            action = new EasyAntFingerprintAction();
+            build.addAction(action);
+        }
+        action.put(step, fingerprint);
+    }
+
+    /**
+     * Gets the fingerprint of the step in the last successful build before
+     * the given one, or null.
+     */
+    static String previous(AbstractBuild<?, ?> build, String step) {
+        AbstractBuild<?, ?> b = build.getPreviousSuccessfulBuild();
+        if (b == null)
+            return null;
+        EasyAntFingerprintAction action = b
+                .getAction(EasyAntFingerprintAction.class);
+        return action == null ? null : action.get(step);
+    }
+}
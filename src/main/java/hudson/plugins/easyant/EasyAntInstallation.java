@@ -84,7 +84,7 @@ public final class EasyAntInstallation extends ToolInstallation implements
         });
     }
 
-    private File getExeFile() {
+    File getExeFile() {
         String execName = (Functions.isWindows()) ? WINDOWS_EASYANT_COMMAND
                 : UNIX_EASYANT_COMMAND;
         String antHome = Util.replaceMacro(easyantHome, EnvVars.masterEnvVars);
@@ -116,7 +116,7 @@ public final class EasyAntInstallation extends ToolInstallation implements
 
         @Override
         public List<? extends ToolInstaller> getDefaultInstallers() {
-            return Collections.singletonList(new EasyAntInstaller(null));
+            return Collections.singletonList(new EasyAntInstaller(null, false));
         }
 
         @Override
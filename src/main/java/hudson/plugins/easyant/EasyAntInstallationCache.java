@@ -0,0 +1,177 @@
+package hudson.plugins.easyant;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.ComputerListener;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the installations translated for each node and build environment,
+ * so that builds do not have to translate them, and run the installers, every
+ * time.
+ *
+ * An entry is only used for the very installation and node it was created
+ * from, so that reconfiguring a node is enough to drop its entries, and the
+ * translations for an environment follow the translation for the node they
+ * come from. Entries are also dropped when the installations are
+ * reconfigured, when the node (re)connects, and when launching the executable
+ * fails.
+ */
+public final class EasyAntInstallationCache {
+    private static final EasyAntInstallationCache INSTANCE = new EasyAntInstallationCache();
+
+    /**
+     * Installations translated for a node, by installation and node name.
+     */
+    private final ConcurrentMap<List<String>, Entry> nodes = new ConcurrentHashMap<List<String>, Entry>();
+
+    /**
+     * Installations translated for an environment, by installation, home
+     * before expansion and expanded home.
+     */
+    private final ConcurrentMap<List<String>, Entry> environments = new ConcurrentHashMap<List<String>, Entry>();
+
+    private final EasyAntMetrics.Counter hits = EasyAntMetrics.get()
+            .counter("easyant_installation_cache_hits_total",
+                    "Installation translations answered by the cache");
+    private final EasyAntMetrics.Counter misses = EasyAntMetrics.get()
+            .counter("easyant_installation_cache_misses_total",
+                    "Installation translations which had to be done");
+
+    private EasyAntInstallationCache() {
+    }
+
+    public static EasyAntInstallationCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the installation for the given node, as
+     * {@link EasyAntInstallation#forNode(Node, TaskListener)} but once per
+     * node.
+     */
+    public EasyAntInstallation forNode(EasyAntInstallation installation,
+            Node node, TaskListener log) throws IOException,
+            InterruptedException {
+        List<String> key = Arrays.asList(installation.getName(),
+                node.getNodeName());
+        Entry e = nodes.get(key);
+        if (e != null && e.source == installation && e.node == node) {
+            hits.inc();
+            return e.installation;
+        }
+        misses.inc();
+        EasyAntInstallation translated = installation.forNode(node, log);
+        nodes.put(key, new Entry(installation, node, translated));
+        return translated;
+    }
+
+    /**
+     * Gets the installation for the given environment, as
+     * {@link EasyAntInstallation#forEnvironment(EnvVars)} but once per
+     * expanded home.
+     *
+     * @param installation
+     *            an installation returned by
+     *            {@link #forNode(EasyAntInstallation, Node, TaskListener)},
+     *            whose entries are dropped with it.
+     */
+    public EasyAntInstallation forEnvironment(
+            EasyAntInstallation installation, EnvVars env) {
+        String home = env.expand(installation.getHome());
+        if (home == null || home.equals(installation.getHome()))
+            // no variable in the home
+            return installation;
+        List<String> key = Arrays.asList(installation.getName(),
+                installation.getHome(), home);
+        Entry e = environments.get(key);
+        if (e != null && e.source == installation) {
+            hits.inc();
+            return e.installation;
+        }
+        misses.inc();
+        EasyAntInstallation translated = installation.forEnvironment(env);
+        environments.put(key, new Entry(installation, null, translated));
+        return translated;
+    }
+
+    /**
+     * Drops the translation of an installation for a node.
+     *
+     * @param installation
+     *            the installation as configured or as translated.
+     */
+    public void invalidate(Node node, EasyAntInstallation installation) {
+        nodes.remove(Arrays.asList(installation.getName(), node.getNodeName()));
+    }
+
+    public void invalidate(Node node) {
+        String name = node.getNodeName();
+        for (List<String> k : nodes.keySet()) {
+            if (k.get(1).equals(name))
+                nodes.remove(k);
+        }
+    }
+
+    public void invalidateAll() {
+        nodes.clear();
+        environments.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getSize() {
+        return nodes.size() + environments.size();
+    }
+
+    private static final class Entry {
+        private final EasyAntInstallation source;
+        /**
+         * Node of a translation for a node, null otherwise.
+         */
+        private final Node node;
+        private final EasyAntInstallation installation;
+
+        Entry(EasyAntInstallation source, Node node,
+                EasyAntInstallation installation) {
+            this.source = source;
+            this.node = node;
+            this.installation = installation;
+        }
+    }
+
+    /**
+     * The tools of a node may have been reinstalled or removed while it was
+     * disconnected.
+     */
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Node node = c.getNode();
+            if (node != null)
+                get().invalidate(node);
+        }
+
+        @Override
+        public void onOffline(Computer c) {
+            Node node = c.getNode();
+            if (node != null)
+                get().invalidate(node);
+        }
+    }
+}
@@ -1,16 +1,171 @@
 package hudson.plugins.easyant;
 
 import hudson.Extension;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
 import hudson.tasks.Messages;
 import hudson.tools.DownloadFromUrlInstaller;
+import hudson.tools.InstallSourceProperty;
 import hudson.tools.ToolInstallation;
+import hudson.tools.ToolInstaller;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+import hudson.util.LogTaskListener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.kohsuke.stapler.DataBoundConstructor;
 
+/**
+ * Installs EasyAnt from the Apache distributions.
+ *
+ * The distribution is downloaded once by the master, verified, and sent to
+ * the nodes over their channel (see {@link EasyAntDistributionCache}). A node
+ * whose installation was unpacked from the same verified distribution is left
+ * as is. With {@link #isPrestage()}, the distribution is installed on the
+ * nodes as soon as they connect, instead of by their first EasyAnt build.
+ */
 public class EasyAntInstaller extends DownloadFromUrlInstaller {
+    /**
+     * Installs from this URL instead of the one of the selected version, e.g.
+     * a file: URL to test without the update center.
+     */
+    public static String URL_OVERRIDE = System
+            .getProperty(EasyAntInstaller.class.getName() + ".url");
+
+    /**
+     * Maximum number of nodes to which the distribution is copied at once
+     * when they connect.
+     */
+    public static int PRESTAGE_THREADS = Integer.getInteger(
+            EasyAntInstaller.class.getName() + ".prestageThreads", 10);
+
+    /**
+     * Written last in an installation, with the checksum of the distribution
+     * it was unpacked from.
+     */
+    static final String CHECKSUM_MARKER = ".easyant-checksum";
+
+    private static final EasyAntKeyedLock LOCKS = new EasyAntKeyedLock();
+
+    private final boolean prestage;
+
     @DataBoundConstructor
-    public EasyAntInstaller(String id) {
+    public EasyAntInstaller(String id, boolean prestage) {
         super(id);
+        this.prestage = prestage;
+    }
+
+    /**
+     * @deprecated Use {@link #EasyAntInstaller(String, boolean)}
+     */
+    public EasyAntInstaller(String id) {
+        this(id, false);
+    }
+
+    public boolean isPrestage() {
+        return prestage;
+    }
+
+    @Override
+    public FilePath performInstallation(ToolInstallation tool, Node node,
+            TaskListener log) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            return install(tool, node, log);
+        } finally {
+            EasyAntMetrics.get().histogram("easyant_install_seconds",
+                    "Installations of EasyAnt on the nodes, including the up-to-date checks",
+                    "node", EasyAntMetrics.nodeLabel(node.getNodeName()))
+                    .observeSince(start);
+        }
+    }
+
+    private FilePath install(ToolInstallation tool, Node node, TaskListener log)
+            throws IOException, InterruptedException {
+        FilePath expected = preferredLocation(tool, node);
+        String url = URL_OVERRIDE;
+        if (url == null) {
+            Installable inst = getInstallable();
+            if (inst == null) {
+                log.getLogger().println("Invalid tool ID " + id);
+                return expected;
+            }
+            url = inst.url;
+        }
+
+        // a build and the pre-staging may install on the same node at once
+        String key = node.getNodeName() + '|' + expected.getRemote();
+        LOCKS.lock(key);
+        try {
+            EasyAntDistributionCache.Distribution dist = EasyAntDistributionCache
+                    .get(new URL(url), log);
+            FilePath marker = expected.child(CHECKSUM_MARKER);
+            if (marker.exists()
+                    && marker.readToString().trim().equals(dist.getChecksum()))
+                return expected;
+            // installed by an earlier version, which only wrote the URL
+            FilePath installedFrom = expected.child(".installedFrom");
+            if (!marker.exists() && installedFrom.exists()
+                    && installedFrom.readToString().trim().equals(url)) {
+                marker.write(dist.getChecksum(), "UTF-8");
+                return expected;
+            }
+
+            log.getLogger().println(
+                    hudson.plugins.easyant.Messages.EasyAntInstaller_Unpacking(
+                            url, expected, node.getDisplayName()));
+            expected.deleteRecursive();
+            expected.mkdirs();
+            InputStream in = new FileInputStream(dist.getArchive());
+            try {
+                if (dist.isZip())
+                    expected.unzipFrom(in);
+                else
+                    expected.untarFrom(in, FilePath.TarCompression.GZIP);
+            } finally {
+                in.close();
+            }
+            FilePath base = findPullUpDirectory(expected);
+            if (base != null && !base.equals(expected))
+                base.moveAllChildrenTo(expected);
+            installedFrom.write(url, "UTF-8");
+            expected.act(new MakeExecutable());
+            marker.write(dist.getChecksum(), "UTF-8");
+            return expected;
+        } finally {
+            LOCKS.unlock(key);
+        }
+    }
+
+    /**
+     * Zip files do not keep the permissions of the launch scripts.
+     */
+    private static final class MakeExecutable implements FileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        public Void invoke(File home, VirtualChannel channel) {
+            File[] scripts = new File(home, "bin").listFiles();
+            if (scripts != null) {
+                for (File f : scripts)
+                    f.setExecutable(true, false);
+            }
+            return null;
+        }
     }
 
     @Extension
@@ -25,4 +180,60 @@ public class EasyAntInstaller extends DownloadFromUrlInstaller {
             return toolType == EasyAntInstallation.class;
         }
     }
+
+    /**
+     * Installs EasyAnt in the background on the nodes which connect, for the
+     * installations whose installer asks for it.
+     */
+    @Extension
+    public static final class PrestageListener extends ComputerListener {
+        private static final ExecutorService PRESTAGER = Executors
+                .newFixedThreadPool(PRESTAGE_THREADS,
+                        new ExceptionCatchingThreadFactory(
+                                new DaemonThreadFactory()));
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            final Node node = c.getNode();
+            if (node == null)
+                return;
+            for (final EasyAntInstallation inst : Hudson.getInstance()
+                    .getDescriptorByType(EasyAnt.DescriptorImpl.class)
+                    .getInstallations()) {
+                if (!isPrestaged(inst, node))
+                    continue;
+                PRESTAGER.submit(new Runnable() {
+                    public void run() {
+                        // the listener of onOnline may be closed by then
+                        TaskListener log = new LogTaskListener(LOGGER,
+                                Level.INFO);
+                        try {
+                            inst.forNode(node, log);
+                        } catch (Exception e) {
+                            LOGGER.log(Level.WARNING, "Failed to install "
+                                    + inst.getName() + " on "
+                                    + node.getNodeName(), e);
+                        }
+                    }
+                });
+            }
+        }
+
+        private static boolean isPrestaged(EasyAntInstallation inst, Node node) {
+            InstallSourceProperty source = inst.getProperties().get(
+                    InstallSourceProperty.class);
+            if (source == null)
+                return false;
+            for (ToolInstaller installer : source.installers) {
+                if (installer instanceof EasyAntInstaller
+                        && ((EasyAntInstaller) installer).isPrestage()
+                        && installer.appliesTo(node))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static final Logger LOGGER = Logger
+            .getLogger(EasyAntInstaller.class.getName());
 }
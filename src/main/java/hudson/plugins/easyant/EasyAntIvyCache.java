@@ -0,0 +1,349 @@
+package hudson.plugins.easyant;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Ivy cache shared by the EasyAnt builds of a node.
+ * 
+ * Builds using the cache hold the read lock of the node while EasyAnt runs;
+ * eviction only happens when it can take the write lock, so that files are
+ * never removed under a running resolve.
+ * 
+ * Concurrent writes of the same artifact are left to Ivy: builds are given
+ * the {@link #LOCK_STRATEGY} in {@link #LOCK_STRATEGY_PROPERTY}, which the
+ * Ivy settings of the project have to use as the lock strategy of their
+ * caches. Without it, two builds of the node may download the same artifact
+ * at once and read it half written.
+ */
+public final class EasyAntIvyCache {
+    /**
+     * Ivy variable for the default cache directory.
+     */
+    public static final String CACHE_DIR_PROPERTY = "ivy.cache.dir";
+
+    /**
+     * Ivy variable for the lock strategy of the caches, used by the settings
+     * as &lt;caches lockStrategy="${ivy.cache.lock.strategy}"/&gt;.
+     */
+    public static final String LOCK_STRATEGY_PROPERTY = "ivy.cache.lock.strategy";
+
+    /**
+     * Lock strategy of Ivy which locks each artifact while it is downloaded,
+     * across processes.
+     */
+    public static final String LOCK_STRATEGY = "artifact-lock";
+
+    /**
+     * Maximum size of the cache of a node, in MB.
+     */
+    public static long MAX_SIZE = Long.getLong(EasyAntIvyCache.class
+            .getName() + ".maxSize", 4096);
+
+    /**
+     * Interval after which the size of a cache is measured again, as the
+     * downloads of other processes are not counted, in milliseconds.
+     */
+    public static long MEASURE_INTERVAL = Long.getLong(
+            EasyAntIvyCache.class.getName() + ".measureInterval",
+            TimeUnit.HOURS.toMillis(1));
+
+    private static final ConcurrentMap<String, ReadWriteLock> LOCKS = new ConcurrentHashMap<String, ReadWriteLock>();
+
+    /**
+     * Estimated size of the cache of each node: the size measured last, plus
+     * the bytes downloaded by the builds since.
+     */
+    private static final ConcurrentMap<String, Size> SIZES = new ConcurrentHashMap<String, Size>();
+
+    private static final class Size {
+        final long bytes;
+        final long measured;
+
+        Size(long bytes, long measured) {
+            this.bytes = bytes;
+            this.measured = measured;
+        }
+    }
+
+    private EasyAntIvyCache() {
+    }
+
+    /**
+     * Gets the cache directory of the node.
+     */
+    public static FilePath getDirectory(Node node) {
+        return node.getRootPath().child("easyant-ivy-cache");
+    }
+
+    /**
+     * Gets the lock guarding the cache of the node against eviction.
+     */
+    static ReadWriteLock getLock(Node node) {
+        String name = node.getNodeName();
+        ReadWriteLock lock = LOCKS.get(name);
+        if (lock == null) {
+            ReadWriteLock created = new ReentrantReadWriteLock();
+            lock = LOCKS.putIfAbsent(name, created);
+            if (lock == null)
+                lock = created;
+        }
+        return lock;
+    }
+
+    /**
+     * Collects the statistics of the resolves made since the given time (in
+     * the clock of the node), from the Ivy resolve reports, and marks the
+     * modules they used as recently used.
+     */
+    static Stats scan(FilePath cache, long since) throws IOException,
+            InterruptedException {
+        return cache.act(new ReportScanner(since));
+    }
+
+    /**
+     * Evicts the least recently used modules of the cache if it is larger than
+     * {@link #MAX_SIZE}, unless a build is using it.
+     * 
+     * The cache is only walked when its estimated size goes over the maximum,
+     * or when it was not measured for {@link #MEASURE_INTERVAL}.
+     */
+    static void evict(Node node, FilePath cache, Stats stats)
+            throws IOException, InterruptedException {
+        String name = node.getNodeName();
+        long max = MAX_SIZE * 1024 * 1024;
+        long now = System.currentTimeMillis();
+        Size size = SIZES.get(name);
+        if (size != null && now - size.measured < MEASURE_INTERVAL) {
+            long estimated = size.bytes + stats.downloadedBytes;
+            if (estimated <= max) {
+                // another build may have added its downloads at once
+                if (SIZES.replace(name, size, new Size(estimated,
+                        size.measured))) {
+                    stats.size = estimated;
+                    return;
+                }
+            }
+        }
+
+        ReadWriteLock lock = getLock(node);
+        if (!lock.writeLock().tryLock())
+            return;
+        try {
+            long[] r = cache.act(new Evictor(max));
+            stats.size = r[0];
+            stats.evicted = r[1];
+            SIZES.put(name, new Size(r[0], now));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * What the builds of a step got from the cache.
+     */
+    public static final class Stats implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Artifacts found in the cache.
+         */
+        int hits;
+
+        /**
+         * Artifacts downloaded into the cache.
+         */
+        int downloads;
+
+        long downloadedBytes;
+
+        /**
+         * Size of the cache after eviction, or -1 if not computed.
+         */
+        long size = -1;
+
+        long evicted;
+    }
+
+    private static final class ReportScanner implements FileCallable<Stats> {
+        private static final long serialVersionUID = 1L;
+
+        private final long since;
+
+        ReportScanner(long since) {
+            this.since = since;
+        }
+
+        public Stats invoke(File cache, VirtualChannel channel)
+                throws IOException {
+            Stats stats = new Stats();
+            File[] reports = cache.listFiles();
+            if (reports == null)
+                return stats;
+            long now = System.currentTimeMillis();
+            Set<File> used = new HashSet<File>();
+            for (File report : reports) {
+                // resolve reports are named org-module-conf.xml
+                if (!report.isFile() || !report.getName().endsWith(".xml")
+                        || report.getName().startsWith("resolved-")
+                        || report.lastModified() < since)
+                    continue;
+                try {
+                    read(cache, report, stats, used);
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Not an Ivy report: " + report, e);
+                }
+            }
+            for (File module : used)
+                module.setLastModified(now);
+            return stats;
+        }
+
+        private void read(File cache, File report, Stats stats, Set<File> used)
+                throws Exception {
+            Document doc = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder().parse(report);
+            if (!"ivy-report".equals(doc.getDocumentElement().getTagName()))
+                return;
+            NodeList modules = doc.getElementsByTagName("module");
+            for (int i = 0; i < modules.getLength(); i++) {
+                Element module = (Element) modules.item(i);
+                File dir = new File(new File(cache,
+                        module.getAttribute("organisation")),
+                        module.getAttribute("name"));
+                if (dir.isDirectory())
+                    used.add(dir);
+                NodeList artifacts = module.getElementsByTagName("artifact");
+                for (int j = 0; j < artifacts.getLength(); j++) {
+                    Element artifact = (Element) artifacts.item(j);
+                    String status = artifact.getAttribute("status");
+                    if ("no".equals(status)) {
+                        stats.hits++;
+                    } else if ("successful".equals(status)) {
+                        stats.downloads++;
+                        try {
+                            stats.downloadedBytes += Long.parseLong(artifact
+                                    .getAttribute("size"));
+                        } catch (NumberFormatException e) {
+                            // size unknown
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes module directories (organisation/module), least recently used
+     * first, until the cache fits in the given size. Returns the size of the
+     * cache and the number of bytes evicted.
+     */
+    private static final class Evictor implements FileCallable<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final long maxSize;
+
+        Evictor(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public long[] invoke(File cache, VirtualChannel channel)
+                throws IOException {
+            final List<File> modules = new ArrayList<File>();
+            final List<Long> sizes = new ArrayList<Long>();
+            long total = 0;
+            File[] orgs = cache.listFiles();
+            if (orgs == null)
+                return new long[] { 0, 0 };
+            for (File org : orgs) {
+                if (!org.isDirectory()) {
+                    total += org.length();
+                    continue;
+                }
+                File[] mods = org.listFiles();
+                if (mods == null)
+                    continue;
+                for (File mod : mods) {
+                    long size = size(mod);
+                    modules.add(mod);
+                    sizes.add(size);
+                    total += size;
+                }
+            }
+            if (total <= maxSize)
+                return new long[] { total, 0 };
+
+            Integer[] order = new Integer[modules.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            final long[] used = new long[order.length];
+            for (int i = 0; i < used.length; i++)
+                used[i] = modules.get(i).lastModified();
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer o1, Integer o2) {
+                    long l1 = used[o1], l2 = used[o2];
+                    return l1 < l2 ? -1 : l1 > l2 ? 1 : 0;
+                }
+            });
+
+            long evicted = 0;
+            for (int i = 0; i < order.length && total > maxSize; i++) {
+                File mod = modules.get(order[i]);
+                long size = sizes.get(order[i]);
+                delete(mod);
+                total -= size;
+                evicted += size;
+            }
+            return new long[] { total, evicted };
+        }
+
+        private static long size(File f) {
+            if (!f.isDirectory())
+                return f.length();
+            long size = 0;
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File c : children)
+                    size += size(c);
+            }
+            return size;
+        }
+
+        private static void delete(File f) {
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File c : children)
+                    delete(c);
+            }
+            f.delete();
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(EasyAntIvyCache.class
+            .getName());
+}
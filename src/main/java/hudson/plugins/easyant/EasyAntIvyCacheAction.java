@@ -0,0 +1,85 @@
+package hudson.plugins.easyant;
+
+import hudson.model.Action;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Shows, on the build page, how the EasyAnt steps of the build used the shared
+ * Ivy cache of the node.
+ */
+@ExportedBean
+public class EasyAntIvyCacheAction implements Action {
+    private int hits;
+    private int downloads;
+    private long downloadedBytes;
+    private long size = -1;
+    private long evicted;
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return Messages.EasyAntIvyCacheAction_DisplayName();
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    @Exported
+    public int getHits() {
+        return hits;
+    }
+
+    @Exported
+    public int getDownloads() {
+        return downloads;
+    }
+
+    /**
+     * Percentage of the artifacts found in the cache.
+     */
+    @Exported
+    public int getHitRatio() {
+        int total = hits + downloads;
+        return total == 0 ? 100 : hits * 100 / total;
+    }
+
+    @Exported
+    public long getDownloadedBytes() {
+        return downloadedBytes;
+    }
+
+    /**
+     * Size of the cache after the build, or -1 if it was not computed.
+     */
+    @Exported
+    public long getSize() {
+        return size;
+    }
+
+    @Exported
+    public long getEvicted() {
+        return evicted;
+    }
+
+    public long getDownloadedKilobytes() {
+        return downloadedBytes / 1024;
+    }
+
+    public long getEvictedKilobytes() {
+        return evicted / 1024;
+    }
+
+    synchronized void add(EasyAntIvyCache.Stats stats) {
+        hits += stats.hits;
+        downloads += stats.downloads;
+        downloadedBytes += stats.downloadedBytes;
+        if (stats.size >= 0)
+            size = stats.size;
+        evicted += stats.evicted;
+    }
+}
@@ -0,0 +1,381 @@
+package hudson.plugins.easyant;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.slaves.ComputerListener;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
+import hudson.tools.ToolPropertyDescriptor;
+import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * JVM options of the EasyAnt processes of an installation, computed from the
+ * cores and memory of the node they run on and shared among its executors.
+ * The options set by the EASYANT_OPTS of the step are left to the step, and
+ * the options are only given to the JVMs which know them, as listed by
+ * -XX:+PrintFlagsFinal.
+ */
+public class EasyAntJvmProfile extends ToolProperty<EasyAntInstallation> {
+    /**
+     * Smallest heap given to EasyAnt, in megabytes.
+     */
+    static final int MIN_HEAP = 256;
+
+    /**
+     * Heaps below this size, in megabytes, are collected by the serial
+     * collector when the collector is chosen automatically.
+     */
+    static final int SERIAL_GC_MAX_HEAP = 1792;
+
+    /**
+     * Cores and memory of the nodes, by node name.
+     */
+    private static final ConcurrentMap<String, long[]> RESOURCES = new ConcurrentHashMap<String, long[]>();
+
+    /**
+     * Flags known by the JVMs, by node name and JAVA_HOME.
+     */
+    private static final ConcurrentMap<List<String>, Set<String>> FLAGS = new ConcurrentHashMap<List<String>, Set<String>>();
+
+    /**
+     * Garbage collector chosen by an option.
+     */
+    private static final Pattern COLLECTOR = Pattern.compile("-XX:[+-]Use\\w+GC\\b");
+
+    /**
+     * Flag listed by -XX:+PrintFlagsFinal.
+     */
+    private static final Pattern FLAG = Pattern.compile("^\\s*\\S+\\s+(\\w+)\\s+:?=");
+
+    /**
+     * Percentage of the memory of the node shared by the heaps of the EasyAnt
+     * processes of all its executors.
+     */
+    private final int heapPercent;
+
+    /**
+     * Maximum heap, in megabytes, or 0 for no limit.
+     */
+    private final int maxHeap;
+
+    /**
+     * Garbage collector: auto, serial, parallel or g1, or null to leave the
+     * choice to the JVM.
+     */
+    private final String gc;
+
+    /**
+     * True to share the cores of the node among its executors for the
+     * parallel garbage collection threads.
+     */
+    private final boolean shareCores;
+
+    private final boolean classSharing;
+
+    /**
+     * True to map the classes of EasyAnt from an archive made on each node.
+     *
+     * @see EasyAntClassDataSharing
+     */
+    private final boolean appClassSharing;
+
+    /**
+     * True to only use the client compiler, which starts faster.
+     */
+    private final boolean quickStart;
+
+    @DataBoundConstructor
+    public EasyAntJvmProfile(int heapPercent, int maxHeap, String gc,
+            boolean shareCores, boolean classSharing, boolean appClassSharing,
+            boolean quickStart) {
+        this.heapPercent = heapPercent;
+        this.maxHeap = maxHeap;
+        this.gc = gc == null || gc.length() == 0 ? null : gc;
+        this.shareCores = shareCores;
+        this.classSharing = classSharing;
+        this.appClassSharing = appClassSharing;
+        this.quickStart = quickStart;
+    }
+
+    public int getHeapPercent() {
+        return heapPercent;
+    }
+
+    public int getMaxHeap() {
+        return maxHeap;
+    }
+
+    public String getGc() {
+        return gc;
+    }
+
+    public boolean isShareCores() {
+        return shareCores;
+    }
+
+    public boolean isClassSharing() {
+        return classSharing;
+    }
+
+    public boolean isAppClassSharing() {
+        return appClassSharing;
+    }
+
+    public boolean isQuickStart() {
+        return quickStart;
+    }
+
+    @Override
+    public Class<EasyAntInstallation> type() {
+        return EasyAntInstallation.class;
+    }
+
+    /**
+     * Computes the options for the given node, leaving out the ones set by
+     * the EASYANT_OPTS of the step and the ones its JVM does not know.
+     */
+    String getOptions(Node node, EnvVars env) throws IOException,
+            InterruptedException {
+        long[] resources = getResources(node);
+        int executors = Math.max(1, node.getNumExecutors());
+        return getOptions((int) resources[0], resources[1], executors,
+                getFlags(node, env), env.get("EASYANT_OPTS"));
+    }
+
+    /**
+     * Computes the options for a node with the given cores and memory, in
+     * bytes, or -1 if unknown.
+     * 
+     * @param flags
+     *            the -XX flags known by the JVM
+     * @param stepOpts
+     *            the EASYANT_OPTS of the step, or null
+     */
+    String getOptions(int cores, long memory, int executors,
+            Set<String> flags, String stepOpts) {
+        if (stepOpts == null)
+            stepOpts = "";
+        StringBuilder opts = new StringBuilder();
+        long heap = -1;
+        if (heapPercent > 0 && memory > 0) {
+            heap = Math.max(MIN_HEAP, memory / (1024 * 1024) * heapPercent
+                    / 100 / executors);
+            if (maxHeap > 0)
+                heap = Math.min(heap, maxHeap);
+            if (!stepOpts.contains("-Xmx"))
+                opts.append(" -Xmx").append(heap).append('m');
+        }
+
+        String collector = gc;
+        // two collectors and the JVM does not start
+        if (COLLECTOR.matcher(stepOpts).find())
+            collector = null;
+        if ("auto".equals(collector))
+            collector = cores == 1 || (heap > 0 && heap < SERIAL_GC_MAX_HEAP) ? "serial"
+                    : "parallel";
+        if ("serial".equals(collector))
+            appendFlag(opts, flags, "UseSerialGC");
+        else if ("parallel".equals(collector))
+            appendFlag(opts, flags, "UseParallelGC");
+        else if ("g1".equals(collector))
+            appendFlag(opts, flags, "UseG1GC");
+
+        if (shareCores && !"serial".equals(collector)
+                && !stepOpts.contains("ParallelGCThreads")
+                && flags.contains("ParallelGCThreads"))
+            opts.append(" -XX:ParallelGCThreads=").append(
+                    Math.max(1, cores / executors));
+        if (classSharing && !stepOpts.contains("-Xshare")
+                && flags.contains("UseSharedSpaces"))
+            opts.append(" -Xshare:auto");
+        if (quickStart && !stepOpts.contains("TieredStopAtLevel")
+                && flags.contains("TieredStopAtLevel"))
+            opts.append(" -XX:TieredStopAtLevel=1");
+        return opts.toString().trim();
+    }
+
+    private static void appendFlag(StringBuilder opts, Set<String> flags,
+            String flag) {
+        if (flags.contains(flag))
+            opts.append(" -XX:+").append(flag);
+    }
+
+    private static long[] getResources(Node node) throws IOException,
+            InterruptedException {
+        long[] resources = RESOURCES.get(node.getNodeName());
+        if (resources == null) {
+            resources = node.getChannel().call(new GetResources());
+            RESOURCES.put(node.getNodeName(), resources);
+        }
+        return resources;
+    }
+
+    /**
+     * Gets the -XX flags known by the JVM of the JAVA_HOME of the
+     * environment, or of the PATH of the node, empty if it does not list
+     * them.
+     */
+    static Set<String> getFlags(Node node, EnvVars env) throws IOException,
+            InterruptedException {
+        String javaHome = env.get("JAVA_HOME");
+        List<String> key = Arrays.asList(node.getNodeName(), javaHome);
+        Set<String> flags = FLAGS.get(key);
+        if (flags == null) {
+            flags = node.getChannel().call(new GetFlags(javaHome));
+            FLAGS.put(key, flags);
+        }
+        return flags;
+    }
+
+    /**
+     * Lists the flags of a HotSpot JVM with -XX:+PrintFlagsFinal.
+     */
+    private static final class GetFlags implements
+            Callable<Set<String>, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String javaHome;
+
+        GetFlags(String javaHome) {
+            this.javaHome = javaHome;
+        }
+
+        public Set<String> call() throws IOException {
+            String java = javaHome == null ? "java" : new File(new File(
+                    javaHome, "bin"), "java").getPath();
+            Set<String> flags = new HashSet<String>();
+            Process p;
+            try {
+                p = new ProcessBuilder(java, "-XX:+PrintFlagsFinal",
+                        "-version").redirectErrorStream(true).start();
+            } catch (IOException e) {
+                // no JVM to ask, no flag
+                return flags;
+            }
+            p.getOutputStream().close();
+            BufferedReader r = new BufferedReader(new InputStreamReader(p
+                    .getInputStream(), "US-ASCII"));
+            try {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    // "    bool UseG1GC      = false     {product}"
+                    Matcher m = FLAG.matcher(line);
+                    if (m.find())
+                        flags.add(m.group(1));
+                }
+            } finally {
+                r.close();
+            }
+            try {
+                p.waitFor();
+            } catch (InterruptedException e) {
+                p.destroy();
+                throw (IOException) new InterruptedIOException()
+                        .initCause(e);
+            }
+            return flags;
+        }
+    }
+
+    /**
+     * Gets the number of cores and the physical memory of the node.
+     */
+    private static final class GetResources implements
+            Callable<long[], IOException> {
+        private static final long serialVersionUID = 1L;
+
+        public long[] call() {
+            OperatingSystemMXBean os = ManagementFactory
+                    .getOperatingSystemMXBean();
+            long memory = -1;
+            try {
+                // not on all the JVMs
+                Class<?> sun = Class
+                        .forName("com.sun.management.OperatingSystemMXBean");
+                if (sun.isInstance(os)) {
+                    Method m = sun.getMethod("getTotalPhysicalMemorySize");
+                    memory = ((Number) m.invoke(os)).longValue();
+                }
+            } catch (Exception e) {
+                // unknown
+            }
+            return new long[] { Runtime.getRuntime().availableProcessors(),
+                    memory };
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ToolPropertyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return Messages.EasyAntJvmProfile_DisplayName();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends ToolInstallation> toolType) {
+            return toolType == EasyAntInstallation.class;
+        }
+
+        public ListBoxModel doFillGcItems() {
+            ListBoxModel m = new ListBoxModel();
+            m.add(Messages.EasyAntJvmProfile_GcDefault(), "");
+            m.add(Messages.EasyAntJvmProfile_GcAuto(), "auto");
+            m.add("Serial", "serial");
+            m.add("Parallel", "parallel");
+            m.add("G1", "g1");
+            return m;
+        }
+
+        public FormValidation doCheckHeapPercent(@QueryParameter int value) {
+            if (value < 0 || value > 100)
+                return FormValidation.error(Messages
+                        .EasyAntJvmProfile_InvalidPercent());
+            return FormValidation.ok();
+        }
+    }
+
+    /**
+     * The node may have been resized while it was disconnected.
+     */
+    @Extension
+    public static final class ComputerListenerImpl extends ComputerListener {
+        @Override
+        public void onOnline(Computer c, TaskListener listener) {
+            Node node = c.getNode();
+            if (node != null) {
+                String name = node.getNodeName();
+                RESOURCES.remove(name);
+                // the JVMs may have been upgraded as well
+                for (List<String> key : FLAGS.keySet()) {
+                    if (key.get(0).equals(name))
+                        FLAGS.remove(key);
+                }
+            }
+        }
+    }
+}
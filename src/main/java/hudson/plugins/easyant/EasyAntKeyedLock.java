@@ -0,0 +1,57 @@
+package hudson.plugins.easyant;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Locks identified by a name, such as a URL or a directory of a node. A lock
+ * is only kept while it is held or waited for, so that the names seen over
+ * time do not pile up.
+ */
+final class EasyAntKeyedLock {
+    private final Map<String, Entry> locks = new HashMap<String, Entry>();
+
+    private static final class Entry {
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * Threads holding or waiting for the lock.
+         */
+        private int users;
+    }
+
+    /**
+     * Waits for the lock of the given name. Every call must be followed by a
+     * call to {@link #unlock(String)}, in a finally block.
+     */
+    void lock(String name) {
+        Entry e;
+        synchronized (locks) {
+            e = locks.get(name);
+            if (e == null) {
+                e = new Entry();
+                locks.put(name, e);
+            }
+            e.users++;
+        }
+        e.lock.lock();
+    }
+
+    void unlock(String name) {
+        synchronized (locks) {
+            Entry e = locks.get(name);
+            e.lock.unlock();
+            if (--e.users == 0)
+                locks.remove(name);
+        }
+    }
+
+    /**
+     * Gets the number of locks held or waited for.
+     */
+    int size() {
+        synchronized (locks) {
+            return locks.size();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package hudson.plugins.easyant;
+
+import hudson.FilePath;
+import hudson.remoting.Callable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Resolves, in a single call to the node, everything {@link EasyAnt} needs to
+ * check before launching EasyAnt: the executable of the installation, the
+ * build module and the build file.
+ */
+final class EasyAntLaunchProbe implements
+        Callable<EasyAntLaunchProbe.Result, IOException> {
+    private static final long serialVersionUID = 1L;
+
+    private final String moduleRoot;
+    private final String workspace;
+    private final String buildModule;
+    private final String buildFile;
+
+    /**
+     * Installation whose executable has to be looked up, or null.
+     */
+    private final EasyAntInstallation installation;
+
+    EasyAntLaunchProbe(FilePath moduleRoot, FilePath workspace,
+            String buildModule, String buildFile,
+            EasyAntInstallation installation) {
+        this.moduleRoot = moduleRoot.getRemote();
+        this.workspace = workspace.getRemote();
+        this.buildModule = buildModule;
+        this.buildFile = buildFile;
+        this.installation = installation;
+    }
+
+    public Result call() throws IOException {
+        Result r = new Result();
+        r.time = System.currentTimeMillis();
+        if (installation != null) {
+            long start = System.nanoTime();
+            File exe = installation.getExeFile();
+            if (exe.exists())
+                r.executable = exe.getPath();
+            r.executableNanos = System.nanoTime() - start;
+        }
+        r.buildModule = resolve(buildModule);
+        r.buildFile = resolve(buildFile);
+        return r;
+    }
+
+    /**
+     * Looks for the file relative to the module root, then relative to the
+     * workspace root. See HUDSON-1782.
+     */
+    private String resolve(String file) {
+        if (file == null)
+            return null;
+        File f = new File(file);
+        if (f.isAbsolute())
+            return f.exists() ? f.getPath() : null;
+        f = new File(moduleRoot, file);
+        if (f.exists())
+            return f.getPath();
+        f = new File(workspace, file);
+        if (f.exists())
+            return f.getPath();
+        return null;
+    }
+
+    public static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private String executable;
+        private String buildModule;
+        private String buildFile;
+        private long time;
+        private long executableNanos = -1;
+
+        /**
+         * Path of the executable, or null if it was not looked up or not found.
+         */
+        public String getExecutable() {
+            return executable;
+        }
+
+        /**
+         * Path of the build module, or null if it was not found.
+         */
+        public String getBuildModule() {
+            return buildModule;
+        }
+
+        /**
+         * Path of the build file, or null if it was not found.
+         */
+        public String getBuildFile() {
+            return buildFile;
+        }
+
+        /**
+         * Time spent looking up the executable on the node, in nanoseconds, or
+         * -1 if it was not looked up.
+         */
+        public long getExecutableNanos() {
+            return executableNanos;
+        }
+
+        /**
+         * Time of the node when it was probed.
+         */
+        public long getTime() {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package hudson.plugins.easyant;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.ZipFile;
+
+/**
+ * {@link EasyAntBuildCache} keeping the outputs as zip files in a directory
+ * of the master, JENKINS_HOME/caches/easyant-outputs by default. The least
+ * recently used entries are removed once the directory exceeds
+ * {@link #MAX_SIZE}.
+ */
+@Extension
+public class EasyAntMasterBuildCache extends EasyAntBuildCache {
+    /**
+     * Maximum size of the cache, in megabytes.
+     */
+    public static long MAX_SIZE = Long.getLong(
+            EasyAntMasterBuildCache.class.getName() + ".maxSize", 2048);
+
+    /**
+     * Directory of the cache, if not the default one.
+     */
+    public static String DIRECTORY = System
+            .getProperty(EasyAntMasterBuildCache.class.getName() + ".dir");
+
+    @Override
+    public long restore(String key, FilePath dir, TaskListener log)
+            throws IOException, InterruptedException {
+        File entry = getEntry(key);
+        if (!entry.exists())
+            return -1;
+        // last use, for the eviction
+        entry.setLastModified(System.currentTimeMillis());
+        InputStream in = new FileInputStream(entry);
+        try {
+            dir.unzipFrom(in);
+        } finally {
+            in.close();
+        }
+        return entry.length();
+    }
+
+    @Override
+    public long store(String key, FilePath dir, String includes,
+            TaskListener log) throws IOException, InterruptedException {
+        File entry = getEntry(key);
+        entry.getParentFile().mkdirs();
+        // builds of the same inputs may store them at once
+        File tmp = File.createTempFile(key, ".zip.tmp", entry.getParentFile());
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            // compressed on the node
+            dir.zip(out, includes);
+        } finally {
+            out.close();
+        }
+        if (isEmpty(tmp)) {
+            // would restore nothing and skip the step
+            tmp.delete();
+            return -1;
+        }
+        entry.delete();
+        if (!tmp.renameTo(entry)) {
+            tmp.delete();
+            throw new IOException("Failed to rename " + tmp + " to " + entry);
+        }
+        evict();
+        return entry.length();
+    }
+
+    private static boolean isEmpty(File zip) throws IOException {
+        ZipFile z = new ZipFile(zip);
+        try {
+            return z.size() == 0;
+        } finally {
+            z.close();
+        }
+    }
+
+    private File getDirectory() {
+        return DIRECTORY != null ? new File(DIRECTORY) : new File(Hudson
+                .getInstance().getRootDir(), "caches/easyant-outputs");
+    }
+
+    private File getEntry(String key) {
+        return new File(getDirectory(), key + ".zip");
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits in
+     * {@link #MAX_SIZE}.
+     */
+    private synchronized void evict() {
+        File[] entries = getDirectory().listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                // not the entries being written
+                return name.endsWith(".zip");
+            }
+        });
+        if (entries == null)
+            return;
+        long size = 0;
+        for (File f : entries)
+            size += f.length();
+        Arrays.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : d > 0 ? 1 : 0;
+            }
+        });
+        for (int i = 0; i < entries.length && size > MAX_SIZE * 1024 * 1024; i++) {
+            long length = entries[i].length();
+            if (entries[i].delete())
+                size -= length;
+        }
+    }
+}
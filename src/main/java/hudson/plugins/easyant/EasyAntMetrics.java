@@ -0,0 +1,342 @@
+package hudson.plugins.easyant;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters, gauges and histograms of what the plugin does, exposed by
+ * {@link EasyAnt.DescriptorImpl#doMetrics} in the Prometheus text format or
+ * in JSON.
+ *
+ * Recording a value only updates atomic variables; the metrics are formatted
+ * when they are scraped.
+ */
+public final class EasyAntMetrics {
+    private static final EasyAntMetrics INSTANCE = new EasyAntMetrics();
+
+    /**
+     * Upper bounds of the histogram buckets, in seconds.
+     */
+    static final double[] BUCKETS = { 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10,
+            30, 60, 300, 600, 1800, 3600 };
+
+    /**
+     * Metric families by name, sorted so that the output is stable.
+     */
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+    private EasyAntMetrics() {
+    }
+
+    public static EasyAntMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the counter of the given name and labels, creating it if needed.
+     *
+     * @param labels
+     *            label names and values, alternately.
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, "counter", help).get(labels);
+    }
+
+    public Gauge gauge(String name, String help, String... labels) {
+        return (Gauge) family(name, "gauge", help).get(labels);
+    }
+
+    /**
+     * Gets the histogram of durations of the given name and labels.
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, "histogram", help).get(labels);
+    }
+
+    /**
+     * Gets the value of the node label of a node name, the master having an
+     * empty name.
+     */
+    static String nodeLabel(String nodeName) {
+        return nodeName == null || nodeName.length() == 0 ? "master"
+                : nodeName;
+    }
+
+    private Family family(String name, String type, String help) {
+        Family f = families.get(name);
+        if (f == null) {
+            Family created = new Family(type, help);
+            f = families.putIfAbsent(name, created);
+            if (f == null)
+                f = created;
+        }
+        if (!f.type.equals(type))
+            throw new IllegalArgumentException(name + " is a " + f.type);
+        return f;
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     */
+    public void writePrometheus(PrintWriter w) {
+        for (Map.Entry<String, Family> e : families.entrySet()) {
+            String name = e.getKey();
+            Family f = e.getValue();
+            w.print("# HELP " + name + ' ');
+            w.println(f.help.replace("\\", "\\\\").replace("\n", "\\n"));
+            w.println("# TYPE " + name + ' ' + f.type);
+            for (Map.Entry<String, Metric> m : f.metrics.entrySet())
+                m.getValue().writePrometheus(w, name, m.getKey());
+        }
+    }
+
+    /**
+     * Writes the metrics as a JSON object keyed by metric name.
+     */
+    public void writeJson(PrintWriter w) {
+        w.print('{');
+        boolean firstFamily = true;
+        for (Map.Entry<String, Family> e : families.entrySet()) {
+            Family f = e.getValue();
+            if (!firstFamily)
+                w.print(',');
+            firstFamily = false;
+            w.print(quote(e.getKey()) + ":{\"type\":" + quote(f.type)
+                    + ",\"help\":" + quote(f.help) + ",\"values\":[");
+            boolean first = true;
+            for (Metric m : f.metrics.values()) {
+                if (!first)
+                    w.print(',');
+                first = false;
+                w.print("{\"labels\":{");
+                for (int i = 0; i + 1 < m.labels.length; i += 2) {
+                    if (i > 0)
+                        w.print(',');
+                    w.print(quote(m.labels[i]) + ':' + quote(m.labels[i + 1]));
+                }
+                w.print("},");
+                m.writeJson(w);
+                w.print('}');
+            }
+            w.print("]}");
+        }
+        w.println('}');
+    }
+
+    static String quote(String s) {
+        StringBuilder b = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c == '\n')
+                b.append("\\n");
+            else if (c < ' ')
+                b.append(String.format("\\u%04x", (int) c));
+            else
+                b.append(c);
+        }
+        return b.append('"').toString();
+    }
+
+    private static final class Family {
+        final String type;
+        final String help;
+        final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+
+        Metric get(String[] labels) {
+            String key = labelString(labels);
+            Metric m = metrics.get(key);
+            if (m == null) {
+                Metric created = create(labels);
+                m = metrics.putIfAbsent(key, created);
+                if (m == null)
+                    m = created;
+            }
+            return m;
+        }
+
+        private Metric create(String[] labels) {
+            if (type.equals("counter"))
+                return new Counter(labels);
+            if (type.equals("gauge"))
+                return new Gauge(labels);
+            return new Histogram(labels);
+        }
+    }
+
+    /**
+     * Formats labels as in the Prometheus text format, without the braces.
+     */
+    private static String labelString(String[] labels) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (b.length() > 0)
+                b.append(',');
+            b.append(labels[i]).append("=\"");
+            b.append(String.valueOf(labels[i + 1]).replace("\\", "\\\\")
+                    .replace("\"", "\\\"").replace("\n", "\\n"));
+            b.append('"');
+        }
+        return b.toString();
+    }
+
+    private static String withLabels(String name, String labels) {
+        return labels.length() == 0 ? name : name + '{' + labels + '}';
+    }
+
+    public static abstract class Metric {
+        final String[] labels;
+
+        Metric(String[] labels) {
+            this.labels = labels;
+        }
+
+        abstract void writePrometheus(PrintWriter w, String name,
+                String labels);
+
+        abstract void writeJson(PrintWriter w);
+    }
+
+    public static final class Counter extends Metric {
+        private final AtomicLong value = new AtomicLong();
+
+        Counter(String[] labels) {
+            super(labels);
+        }
+
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        public void add(long n) {
+            value.addAndGet(n);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        @Override
+        void writePrometheus(PrintWriter w, String name, String labels) {
+            w.println(withLabels(name, labels) + ' ' + value.get());
+        }
+
+        @Override
+        void writeJson(PrintWriter w) {
+            w.print("\"value\":" + value.get());
+        }
+    }
+
+    public static final class Gauge extends Metric {
+        private final AtomicLong value = new AtomicLong();
+
+        Gauge(String[] labels) {
+            super(labels);
+        }
+
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        public void dec() {
+            value.decrementAndGet();
+        }
+
+        public void set(long n) {
+            value.set(n);
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        @Override
+        void writePrometheus(PrintWriter w, String name, String labels) {
+            w.println(withLabels(name, labels) + ' ' + value.get());
+        }
+
+        @Override
+        void writeJson(PrintWriter w) {
+            w.print("\"value\":" + value.get());
+        }
+    }
+
+    /**
+     * Distribution of durations, exported in seconds.
+     */
+    public static final class Histogram extends Metric {
+        /**
+         * Non cumulative counts, the last bucket being +Inf.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(
+                BUCKETS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sumNanos = new AtomicLong();
+
+        Histogram(String[] labels) {
+            super(labels);
+        }
+
+        public void observe(long nanos) {
+            double seconds = nanos / 1e9;
+            int i = 0;
+            while (i < BUCKETS.length && seconds > BUCKETS[i])
+                i++;
+            buckets.incrementAndGet(i);
+            count.incrementAndGet();
+            sumNanos.addAndGet(nanos);
+        }
+
+        /**
+         * Records the time elapsed since the given {@link System#nanoTime()}.
+         */
+        public void observeSince(long startNanos) {
+            observe(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        @Override
+        void writePrometheus(PrintWriter w, String name, String labels) {
+            String prefix = labels.length() == 0 ? "" : labels + ',';
+            long cumulative = 0;
+            for (int i = 0; i <= BUCKETS.length; i++) {
+                cumulative += buckets.get(i);
+                String le = i < BUCKETS.length ? String.valueOf(BUCKETS[i])
+                        : "+Inf";
+                w.println(name + "_bucket{" + prefix + "le=\"" + le + "\"} "
+                        + cumulative);
+            }
+            w.println(withLabels(name + "_sum", labels) + ' '
+                    + sumNanos.get() / 1e9);
+            w.println(withLabels(name + "_count", labels) + ' ' + count.get());
+        }
+
+        @Override
+        void writeJson(PrintWriter w) {
+            w.print("\"count\":" + count.get() + ",\"sum\":" + sumNanos.get()
+                    / 1e9 + ",\"buckets\":{");
+            long cumulative = 0;
+            for (int i = 0; i <= BUCKETS.length; i++) {
+                cumulative += buckets.get(i);
+                if (i > 0)
+                    w.print(',');
+                w.print(quote(i < BUCKETS.length ? String.valueOf(BUCKETS[i])
+                        : "+Inf") + ':' + cumulative);
+            }
+            w.print('}');
+        }
+    }
+}
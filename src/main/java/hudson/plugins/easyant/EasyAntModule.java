@@ -0,0 +1,141 @@
+package hudson.plugins.easyant;
+
+import hudson.FilePath.FileCallable;
+import hudson.remoting.VirtualChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * A module of a multi-module EasyAnt build, as described by its module
+ * descriptor (module.ivy).
+ */
+public final class EasyAntModule implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Directory of the module descriptor, relative to the module root, or null
+     * for the module root itself.
+     */
+    private final String directory;
+
+    private final String fileName;
+
+    private final String organisation;
+    private final String name;
+
+    /**
+     * Dependencies, as organisation#name.
+     */
+    private final List<String> dependencies = new ArrayList<String>();
+
+    /**
+     * Arguments added to the command line of this module only.
+     */
+    private final List<String> arguments = new ArrayList<String>();
+
+    EasyAntModule(String directory, String fileName, String organisation,
+            String name) {
+        this.directory = directory;
+        this.fileName = fileName;
+        this.organisation = organisation;
+        this.name = name;
+    }
+
+    /**
+     * Gets the directory of the module descriptor, relative to the module
+     * root, or null if it is the module root.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getId() {
+        return organisation == null ? name : organisation + '#' + name;
+    }
+
+    public List<String> getDependencies() {
+        return Collections.unmodifiableList(dependencies);
+    }
+
+    List<String> getArguments() {
+        return arguments;
+    }
+
+    @Override
+    public String toString() {
+        return getId();
+    }
+
+    /**
+     * Finds and parses the module descriptors matching Ant-style include
+     * patterns under the module root.
+     */
+    static final class Scanner implements FileCallable<List<EasyAntModule>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String includes;
+
+        Scanner(String includes) {
+            this.includes = includes;
+        }
+
+        public List<EasyAntModule> invoke(File root, VirtualChannel channel)
+                throws IOException {
+            DirectoryScanner ds = new DirectoryScanner();
+            ds.setBasedir(root);
+            ds.setIncludes(includes.trim().split("[,\\s]+"));
+            ds.scan();
+
+            List<EasyAntModule> modules = new ArrayList<EasyAntModule>();
+            for (String path : ds.getIncludedFiles()) {
+                try {
+                    modules.add(parse(new File(root, path), path));
+                } catch (Exception e) {
+                    IOException ioe = new IOException("Failed to parse " + path);
+                    ioe.initCause(e);
+                    throw ioe;
+                }
+            }
+            return modules;
+        }
+
+        private EasyAntModule parse(File file, String path) throws Exception {
+            Document doc = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder().parse(file);
+            Element info = (Element) doc.getElementsByTagName("info").item(0);
+            if (info == null)
+                throw new IOException("No info element in " + path);
+            String org = info.getAttribute("organisation");
+            EasyAntModule m = new EasyAntModule(new File(path).getParent(),
+                    file.getName(), org, info.getAttribute("module"));
+            NodeList deps = doc.getElementsByTagName("dependency");
+            for (int i = 0; i < deps.getLength(); i++) {
+                Element dep = (Element) deps.item(i);
+                String depOrg = dep.getAttribute("org");
+                m.dependencies.add((depOrg.length() == 0 ? org : depOrg) + '#'
+                        + dep.getAttribute("name"));
+            }
+            return m;
+        }
+    }
+}
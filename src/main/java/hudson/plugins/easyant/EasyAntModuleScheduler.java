@@ -0,0 +1,256 @@
+package hudson.plugins.easyant;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the modules of a multi-module EasyAnt build, running modules whose
+ * dependencies have been built concurrently, up to a maximum number of
+ * processes. The first module that fails stops the whole build, unless the
+ * modules are independent runs, like the shards of
+ * {@link EasyAntTestSharder}, which are all run to completion.
+ */
+final class EasyAntModuleScheduler {
+    private final AbstractBuild<?, ?> build;
+    private final Launcher launcher;
+    private final BuildListener listener;
+    private final EnvVars env;
+
+    /**
+     * Command line up to the module specific arguments.
+     */
+    private final ArgumentListBuilder args;
+
+    private final String targets;
+
+    private final int parallelism;
+
+    /**
+     * Measures the output of all the modules, or null.
+     */
+    private final EasyAntConsoleListener monitor;
+
+    /**
+     * True to stop all the modules as soon as one fails, false to let the
+     * others finish.
+     */
+    private final boolean failFast;
+
+    /**
+     * EasyAnt processes currently running.
+     */
+    private final Set<Proc> running = Collections.newSetFromMap(new ConcurrentHashMap<Proc, Boolean>());
+
+    EasyAntModuleScheduler(AbstractBuild<?, ?> build, Launcher launcher,
+            BuildListener listener, EnvVars env, ArgumentListBuilder args,
+            String targets, int parallelism, EasyAntConsoleListener monitor,
+            boolean failFast) {
+        this.build = build;
+        this.launcher = launcher;
+        this.listener = listener;
+        this.env = env;
+        this.args = args;
+        this.targets = targets;
+        this.parallelism = Math.max(1, parallelism);
+        this.monitor = monitor;
+        this.failFast = failFast;
+    }
+
+    /**
+     * Builds the modules, each one after the modules it depends on.
+     * 
+     * @return true if all the modules were built successfully.
+     */
+    boolean run(List<EasyAntModule> modules) throws IOException,
+            InterruptedException {
+        PrintStream logger = listener.getLogger();
+
+        // dependency graph, restricted to the modules being built
+        Map<String, EasyAntModule> byId = new HashMap<String, EasyAntModule>();
+        for (EasyAntModule m : modules)
+            byId.put(m.getId(), m);
+        Map<EasyAntModule, Integer> pending = new HashMap<EasyAntModule, Integer>();
+        Map<EasyAntModule, List<EasyAntModule>> dependents = new HashMap<EasyAntModule, List<EasyAntModule>>();
+        for (EasyAntModule m : modules) {
+            dependents.put(m, new ArrayList<EasyAntModule>());
+            pending.put(m, 0);
+        }
+        for (EasyAntModule m : modules) {
+            for (String dep : m.getDependencies()) {
+                EasyAntModule d = byId.get(dep);
+                if (d != null && d != m) {
+                    dependents.get(d).add(m);
+                    pending.put(m, pending.get(m) + 1);
+                }
+            }
+        }
+
+        ExecutorService executor = Executors
+                .newFixedThreadPool(parallelism,
+                        new ExceptionCatchingThreadFactory(
+                                new DaemonThreadFactory()));
+        CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(
+                executor);
+        Map<Future<Integer>, EasyAntModule> submitted = new HashMap<Future<Integer>, EasyAntModule>();
+        try {
+            for (EasyAntModule m : modules) {
+                if (pending.get(m) == 0)
+                    submitted.put(completion.submit(new ModuleBuild(m)), m);
+            }
+            int built = 0;
+            boolean failed = false;
+            while (!submitted.isEmpty()) {
+                Future<Integer> f = completion.take();
+                EasyAntModule m = submitted.remove(f);
+                int r;
+                try {
+                    r = f.get();
+                } catch (ExecutionException e) {
+                    killAll();
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    if (cause instanceof InterruptedException)
+                        throw (InterruptedException) cause;
+                    throw (IOException) new IOException(cause.toString())
+                            .initCause(cause);
+                }
+                if (r != 0) {
+                    if (!failFast) {
+                        // its dependents are not built
+                        logger.println(Messages.EasyAnt_Failed(m));
+                        failed = true;
+                        continue;
+                    }
+                    logger.println(Messages.EasyAnt_ModuleFailed(m));
+                    killAll();
+                    return false;
+                }
+                built++;
+                for (EasyAntModule d : dependents.get(m)) {
+                    int left = pending.get(d) - 1;
+                    pending.put(d, left);
+                    if (left == 0)
+                        submitted.put(completion.submit(new ModuleBuild(d)), d);
+                }
+            }
+            if (failed)
+                return false;
+            if (built < modules.size()) {
+                List<EasyAntModule> cycle = new ArrayList<EasyAntModule>();
+                for (Map.Entry<EasyAntModule, Integer> e : pending.entrySet()) {
+                    if (e.getValue() > 0)
+                        cycle.add(e.getKey());
+                }
+                listener.error(Messages.EasyAnt_ModuleCycle(cycle));
+                return false;
+            }
+            return true;
+        } catch (InterruptedException e) {
+            // the build was aborted
+            killAll();
+            throw e;
+        } finally {
+            executor.shutdownNow();
+            // the modules still write to the log and the actions of the build
+            awaitTermination(executor);
+        }
+    }
+
+    /**
+     * Waits for the interrupted modules to kill their process and save what
+     * they recorded.
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // aborted again, the modules are already being stopped
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private void killAll() throws IOException, InterruptedException {
+        for (Proc p : running)
+            p.kill();
+    }
+
+    /**
+     * Runs EasyAnt on one module, with its output prefixed by the module name.
+     */
+    private final class ModuleBuild implements Callable<Integer> {
+        private final EasyAntModule module;
+
+        ModuleBuild(EasyAntModule module) {
+            this.module = module;
+        }
+
+        public Integer call() throws IOException, InterruptedException {
+            ArgumentListBuilder cmd = args.clone();
+            if (module.getFileName() != null)
+                cmd.add("-buildModule", module.getFileName());
+            cmd.add(module.getArguments().toArray(
+                    new String[module.getArguments().size()]));
+            cmd.addTokenized(targets);
+            cmd = EasyAnt.toCommand(launcher, cmd);
+
+            FilePath pwd = module.getDirectory() == null ? build
+                    .getModuleRoot() : build.getModuleRoot().child(
+                    module.getDirectory());
+
+            // offsets are meaningless once the outputs are interleaved
+            EasyAntTargetRecorder recorder = new EasyAntTargetRecorder(
+                    module.getName() + ":");
+            EasyAntPrefixOutputStream out = new EasyAntPrefixOutputStream(
+                    listener.getLogger(), ("[" + module.getName() + "] ")
+                            .getBytes(build.getCharset().name()));
+            EasyAntFailureRecorder failure = new EasyAntFailureRecorder(
+                    module.getName() + ":", build.getCharset());
+            EasyAntConsoleAnnotator eaca = new EasyAntConsoleAnnotator(out,
+                    build.getCharset(), EasyAnt.listeners(recorder, failure,
+                            monitor));
+            Proc proc = launcher.launch().cmds(cmd).envs(env).stdout(eaca)
+                    .pwd(pwd).start();
+            running.add(proc);
+            try {
+                return proc.join();
+            } finally {
+                running.remove(proc);
+                eaca.end();
+                out.forceEol();
+                recorder.save(build);
+                failure.save(build);
+            }
+        }
+    }
+}
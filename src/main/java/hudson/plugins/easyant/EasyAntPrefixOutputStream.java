@@ -0,0 +1,36 @@
+package hudson.plugins.easyant;
+
+import hudson.console.LineTransformationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Prefixes every line with the name of the module it comes from, and writes
+ * whole lines at once so that the output of modules built concurrently does
+ * not get mixed within a line.
+ */
+class EasyAntPrefixOutputStream extends LineTransformationOutputStream {
+    private final OutputStream out;
+    private final byte[] prefix;
+
+    EasyAntPrefixOutputStream(OutputStream out, byte[] prefix) {
+        this.out = out;
+        this.prefix = prefix;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        byte[] line = new byte[prefix.length + len];
+        System.arraycopy(prefix, 0, line, 0, prefix.length);
+        System.arraycopy(b, 0, line, prefix.length, len);
+        synchronized (out) {
+            out.write(line);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+}
@@ -0,0 +1,366 @@
+package hudson.plugins.easyant;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.TaskListener;
+import hudson.remoting.Callable;
+import hudson.remoting.RemoteOutputStream;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.StreamTaskListener;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Runs EasyAnt and its {@link EasyAntConsoleAnnotator} on the node, so that
+ * the master only writes the annotated output, received in compressed chunks,
+ * to the build log. The target and failure recorders run on the node as well
+ * and are sent back once the process is done.
+ *
+ * Only used with a plain remote launcher, as the decorations of a launcher
+ * (by build wrappers, for example) cannot be applied on the node. Set the
+ * <tt>hudson.plugins.easyant.EasyAntRemoteAnnotator.disabled</tt> system
+ * property on the master to annotate on the master instead.
+ */
+final class EasyAntRemoteAnnotator {
+    public static boolean DISABLED = Boolean
+            .getBoolean(EasyAntRemoteAnnotator.class.getName() + ".disabled");
+
+    private EasyAntRemoteAnnotator() {
+    }
+
+    /**
+     * Checks if the output of processes started by the given launcher can be
+     * annotated on the node.
+     */
+    static boolean isApplicable(Launcher launcher) {
+        return !DISABLED && launcher.getClass() == Launcher.RemoteLauncher.class;
+    }
+
+    /**
+     * Runs the command on the node of the launcher, writing its annotated
+     * output to the listener.
+     */
+    static Result launch(Launcher launcher, TaskListener listener,
+            EnvVars env, ArgumentListBuilder args, FilePath pwd,
+            Charset charset, EasyAntTargetRecorder recorder,
+            EasyAntFailureRecorder failure) throws IOException,
+            InterruptedException {
+        InflatingStream out = new InflatingStream(listener.getLogger());
+        long clock = System.currentTimeMillis();
+        Result r = launcher.getChannel().call(
+                new Launch(args, env, pwd.getRemote(), charset.name(),
+                        new RemoteOutputStream(out), recorder, failure));
+        // the targets were timed with the clock of the node
+        r.recorder.shift(clock - r.clock);
+        // and follow the command line printed on the node
+        r.recorder.rebase(r.recorder.getBase() + r.echoBytes);
+        EasyAntConsoleAnnotator.publish(r.lines, r.position, r.targets,
+                r.writes);
+        return r;
+    }
+
+    /**
+     * What the annotation on the node found.
+     */
+    static final class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int exitCode;
+        private final EasyAntTargetRecorder recorder;
+        private final EasyAntFailureRecorder failure;
+        /**
+         * Time on the node when the process was launched.
+         */
+        private final long clock;
+        private final long lines;
+        private final long position;
+        private final long targets;
+        private final long writes;
+        /**
+         * Bytes of process output, without the console notes.
+         */
+        private final long outputBytes;
+        /**
+         * Bytes written to the build log by the launcher of the node, which
+         * prints the command line before the process output.
+         */
+        private final long echoBytes;
+
+        Result(int exitCode, EasyAntTargetRecorder recorder,
+                EasyAntFailureRecorder failure, long clock,
+                EasyAntConsoleAnnotator annotator, long outputBytes,
+                long echoBytes) {
+            this.exitCode = exitCode;
+            this.recorder = recorder;
+            this.failure = failure;
+            this.clock = clock;
+            this.lines = annotator.getLines();
+            this.position = annotator.getPosition();
+            this.targets = annotator.getTargets();
+            this.writes = annotator.getWrites();
+            this.outputBytes = outputBytes;
+            this.echoBytes = echoBytes;
+        }
+
+        int getExitCode() {
+            return exitCode;
+        }
+
+        EasyAntTargetRecorder getRecorder() {
+            return recorder;
+        }
+
+        EasyAntFailureRecorder getFailure() {
+            return failure;
+        }
+
+        long getLines() {
+            return lines;
+        }
+
+        long getOutputBytes() {
+            return outputBytes;
+        }
+    }
+
+    private static final class Launch implements Callable<Result, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final ArgumentListBuilder args;
+        private final EnvVars env;
+        private final String pwd;
+        private final String charset;
+        private final OutputStream out;
+        private final EasyAntTargetRecorder recorder;
+        private final EasyAntFailureRecorder failure;
+
+        Launch(ArgumentListBuilder args, EnvVars env, String pwd,
+                String charset, OutputStream out,
+                EasyAntTargetRecorder recorder, EasyAntFailureRecorder failure) {
+            this.args = args;
+            this.env = env;
+            this.pwd = pwd;
+            this.charset = charset;
+            this.out = out;
+            this.recorder = recorder;
+            this.failure = failure;
+        }
+
+        public Result call() throws IOException {
+            long clock = System.currentTimeMillis();
+            DeflatingStream deflating = new DeflatingStream(out);
+            OutputCounter counter = new OutputCounter();
+            EasyAntConsoleAnnotator eaca = new EasyAntConsoleAnnotator(
+                    deflating, Charset.forName(charset), recorder, failure,
+                    counter);
+            EchoCounter echo = new EchoCounter(deflating);
+            int exitCode;
+            try {
+                try {
+                    exitCode = new Launcher.LocalLauncher(
+                            new StreamTaskListener(echo)).launch()
+                            .cmds(args).envs(env).stdout(eaca)
+                            .pwd(new File(pwd)).join();
+                } finally {
+                    eaca.finish();
+                }
+            } catch (InterruptedException e) {
+                // the process has been killed
+                throw (IOException) new InterruptedIOException()
+                        .initCause(e);
+            } finally {
+                deflating.close();
+            }
+            return new Result(exitCode, recorder, failure, clock, eaca,
+                    counter.bytes, echo.bytes);
+        }
+    }
+
+    private static final class OutputCounter extends EasyAntConsoleListener {
+        private long bytes;
+
+        @Override
+        public void onLine(byte[] b, int len) {
+            bytes += len;
+        }
+    }
+
+    /**
+     * Counts the bytes written by the launcher to the build log.
+     */
+    private static final class EchoCounter extends FilterOutputStream {
+        private long bytes;
+
+        EchoCounter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+    }
+
+    /**
+     * Sends each write as a frame: its length, negated if the data is stored
+     * as is, followed by the data, compressed unless compressing did not make
+     * it smaller. The annotator writes once per chunk of output, so that the
+     * frames are large enough to compress well.
+     */
+    static final class DeflatingStream extends OutputStream {
+        private final OutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] frame = new byte[EasyAntConsoleAnnotator.BUFFER_SIZE + 4];
+
+        DeflatingStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return;
+            if (frame.length < len + 4)
+                frame = new byte[len + 4];
+            deflater.reset();
+            deflater.setInput(b, off, len);
+            deflater.finish();
+            int n = 0;
+            while (!deflater.finished() && n < len)
+                n += deflater.deflate(frame, 4 + n, len - n);
+            int size;
+            if (deflater.finished() && n < len) {
+                size = n;
+            } else {
+                System.arraycopy(b, off, frame, 4, len);
+                size = -len;
+            }
+            frame[0] = (byte) (size >>> 24);
+            frame[1] = (byte) (size >>> 16);
+            frame[2] = (byte) (size >>> 8);
+            frame[3] = (byte) size;
+            out.write(frame, 0, 4 + Math.abs(size));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the data of the frames of a {@link DeflatingStream}, which may
+     * be split across writes, to the build log.
+     */
+    static final class InflatingStream extends OutputStream {
+        private final OutputStream out;
+        private final Inflater inflater = new Inflater();
+        private final byte[] header = new byte[4];
+        private int headerLength;
+        private byte[] payload = new byte[EasyAntConsoleAnnotator.BUFFER_SIZE];
+        private int payloadLength;
+        /**
+         * Size of the frame being read, negative if it is not compressed.
+         */
+        private int size;
+        private final byte[] inflated = new byte[EasyAntConsoleAnnotator.BUFFER_SIZE * 2];
+
+        InflatingStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len)
+                throws IOException {
+            int end = off + len;
+            while (off < end) {
+                if (headerLength < 4) {
+                    header[headerLength++] = b[off++];
+                    if (headerLength == 4) {
+                        size = (header[0] << 24) | ((header[1] & 0xFF) << 16)
+                                | ((header[2] & 0xFF) << 8)
+                                | (header[3] & 0xFF);
+                        if (payload.length < Math.abs(size))
+                            payload = new byte[Math.abs(size)];
+                        payloadLength = 0;
+                    }
+                    continue;
+                }
+                int n = Math.min(Math.abs(size) - payloadLength, end - off);
+                System.arraycopy(b, off, payload, payloadLength, n);
+                off += n;
+                payloadLength += n;
+                if (payloadLength == Math.abs(size)) {
+                    writeFrame();
+                    headerLength = 0;
+                }
+            }
+        }
+
+        private void writeFrame() throws IOException {
+            if (size < 0) {
+                out.write(payload, 0, -size);
+                return;
+            }
+            inflater.reset();
+            inflater.setInput(payload, 0, size);
+            try {
+                while (!inflater.finished()) {
+                    int n = inflater.inflate(inflated);
+                    if (n == 0 && inflater.needsInput())
+                        throw new IOException("Truncated EasyAnt output frame");
+                    out.write(inflated, 0, n);
+                }
+            } catch (DataFormatException e) {
+                throw (IOException) new IOException(
+                        "Corrupted EasyAnt output frame").initCause(e);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Leaves the build log open, as it outlives the process.
+         */
+        @Override
+        public synchronized void close() {
+            inflater.end();
+        }
+    }
+}
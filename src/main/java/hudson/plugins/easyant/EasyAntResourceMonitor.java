@@ -0,0 +1,218 @@
+package hudson.plugins.easyant;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.AbstractBuild;
+import hudson.model.Node;
+import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures the resources used by an EasyAnt step: wall time, CPU time of its
+ * processes and peak memory of the largest one, sampled on the node, time
+ * spent in garbage collection, read from a GC log, and the amount of console
+ * output.
+ */
+final class EasyAntResourceMonitor extends EasyAntConsoleListener {
+    /**
+     * Environment variable identifying the processes of the step.
+     */
+    static final String COOKIE = "EASYANT_RESOURCE_COOKIE";
+
+    /**
+     * Interval between two samples, in seconds. CPU time used by processes
+     * after the last sample is not counted.
+     */
+    public static int SAMPLE_INTERVAL = Integer.getInteger(
+            EasyAntResourceMonitor.class.getName() + ".interval", 2);
+
+    /**
+     * Options with which the user already chose how the JVM logs garbage
+     * collection.
+     */
+    private static final Pattern GC_OPTIONS = Pattern
+            .compile("-Xloggc|-verbose:gc|-Xlog:gc|PrintGC");
+
+    /**
+     * Number of threads sampling the nodes. Each sample waits for its node, so
+     * a slow node only delays the samples of the other steps when more steps
+     * than threads wait at once.
+     */
+    public static int SAMPLER_THREADS = Integer.getInteger(
+            EasyAntResourceMonitor.class.getName() + ".threads", 4);
+
+    private static final ScheduledExecutorService SAMPLER = new ScheduledThreadPoolExecutor(
+            SAMPLER_THREADS, new DaemonThreadFactory());
+
+    private final VirtualChannel channel;
+    private final String cookie = UUID.randomUUID().toString();
+
+    /**
+     * GC log written by the EasyAnt JVM, or null.
+     */
+    private final FilePath gcLog;
+
+    private ScheduledFuture<?> sampling;
+
+    private long start;
+    private long wallTime;
+    private long cpuTime = -1;
+    private long peakRss = -1;
+    private long gcTime = -1;
+
+    private long consoleBytes;
+    private long lines;
+
+    private EasyAntResourceMonitor(VirtualChannel channel, FilePath gcLog) {
+        this.channel = channel;
+        this.gcLog = gcLog;
+    }
+
+    /**
+     * Sets up the environment of the step so that its processes can be
+     * measured.
+     * 
+     * @param logGc
+     *            true to make the JVM log its garbage collections, unless
+     *            EASYANT_OPTS already configures that.
+     */
+    static EasyAntResourceMonitor prepare(Node node, EnvVars env, boolean logGc)
+            throws IOException, InterruptedException {
+        FilePath gcLog = null;
+        String opts = env.get("EASYANT_OPTS");
+        if (logGc && (opts == null || !GC_OPTIONS.matcher(opts).find())) {
+            FilePath dir = node.getRootPath().child("easyant");
+            dir.mkdirs();
+            gcLog = dir.createTempFile("gc", ".log");
+            env.put("EASYANT_OPTS", (opts == null ? "" : opts + " ")
+                    + "-Xloggc:" + gcLog.getRemote());
+        }
+        EasyAntResourceMonitor monitor = new EasyAntResourceMonitor(
+                node.getChannel(), gcLog);
+        env.put(COOKIE, monitor.cookie);
+        return monitor;
+    }
+
+    void start() {
+        start = System.currentTimeMillis();
+        sampling = SAMPLER.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    sample();
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINE, "Failed to sample " + cookie, e);
+                }
+            }
+        }, 0, SAMPLE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    void stop() throws IOException, InterruptedException {
+        wallTime = System.currentTimeMillis() - start;
+        if (sampling != null)
+            sampling.cancel(false);
+        if (gcLog != null) {
+            try {
+                gcTime = gcLog.act(new GcLogParser());
+            } finally {
+                gcLog.delete();
+            }
+        }
+    }
+
+    private void sample() throws IOException, InterruptedException {
+        long[] s = channel.call(new EasyAntResourceSampler(COOKIE, cookie));
+        synchronized (this) {
+            // processes which terminated leave the sums
+            cpuTime = Math.max(cpuTime, s[0]);
+            peakRss = Math.max(peakRss, s[1]);
+        }
+    }
+
+    @Override
+    public synchronized void onLine(byte[] b, int len) {
+        consoleBytes += len;
+        lines++;
+    }
+
+    /**
+     * Counts output which was annotated on the node, instead of going through
+     * {@link #onLine(byte[], int)}.
+     */
+    synchronized void addOutput(long bytes, long lines) {
+        consoleBytes += bytes;
+        this.lines += lines;
+    }
+
+    /**
+     * Adds the measures to the {@link EasyAntResourcesAction} of the build.
+     */
+    synchronized void save(AbstractBuild<?, ?> build) {
+        EasyAntResourcesAction action = build
+                .getAction(EasyAntResourcesAction.class);
+        if (action == null) {
+            action = new EasyAntResourcesAction();
+            build.addAction(action);
+        }
+        action.add(wallTime, cpuTime, peakRss, gcTime, consoleBytes, lines);
+    }
+
+    /**
+     * Sums the pauses of a GC log, in milliseconds, in the format of -Xloggc
+     * before and after Java 9.
+     */
+    private static final class GcLogParser implements FileCallable<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private static final Pattern SECONDS = Pattern
+                .compile("(\\d+[.,]\\d+) secs\\]");
+        private static final Pattern MILLISECONDS = Pattern
+                .compile("(\\d+[.,]\\d+)ms$");
+
+        public Long invoke(File f, VirtualChannel channel) throws IOException {
+            if (f.length() == 0)
+                // the JVM did not accept the option
+                return -1L;
+            double millis = 0;
+            BufferedReader r = new BufferedReader(new FileReader(f));
+            try {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    Matcher m = SECONDS.matcher(line);
+                    if (m.find()) {
+                        millis += parse(m.group(1)) * 1000;
+                        continue;
+                    }
+                    m = MILLISECONDS.matcher(line);
+                    if (m.find())
+                        millis += parse(m.group(1));
+                }
+            } finally {
+                r.close();
+            }
+            return Math.round(millis);
+        }
+
+        private static double parse(String number) {
+            // the decimal separator follows the locale of the JVM
+            return Double.parseDouble(number.replace(',', '.'));
+        }
+    }
+
+    private static final Logger LOGGER = Logger
+            .getLogger(EasyAntResourceMonitor.class.getName());
+}
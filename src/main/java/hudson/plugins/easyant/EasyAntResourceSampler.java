@@ -0,0 +1,101 @@
+package hudson.plugins.easyant;
+
+import hudson.remoting.Callable;
+import hudson.util.ProcessTree;
+import hudson.util.ProcessTree.OSProcess;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Measures, on the node, the processes started for an EasyAnt step, found by
+ * the cookie added to their environment.
+ * 
+ * CPU time and memory are read from /proc, so they are only known on Linux.
+ */
+final class EasyAntResourceSampler implements Callable<long[], IOException> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Clock ticks per second of the times in /proc/[pid]/stat. USER_HZ is 100
+     * on all the Linux platforms we run on.
+     */
+    private static final long TICKS_PER_SECOND = 100;
+
+    private final Map<String, String> cookie;
+
+    EasyAntResourceSampler(String name, String value) {
+        this.cookie = Collections.singletonMap(name, value);
+    }
+
+    /**
+     * @return the CPU time of the processes in milliseconds, including their
+     *         terminated children, the peak resident set size of the largest
+     *         one in kilobytes, and the number of processes, or -1s if /proc
+     *         is not available. The peaks of the processes are not summed, as
+     *         they are not reached at the same time: the shell starting
+     *         EasyAnt would be counted along with the JVM.
+     */
+    public long[] call() throws IOException {
+        if (!new File("/proc/self/stat").exists())
+            return new long[] { -1, -1, -1 };
+        long cpu = 0, rss = 0, count = 0;
+        for (OSProcess p : ProcessTree.get()) {
+            if (!p.hasMatchingEnvVars(cookie))
+                continue;
+            try {
+                cpu += readCpu(p.getPid());
+                rss = Math.max(rss, readPeakRss(p.getPid()));
+                count++;
+            } catch (IOException e) {
+                // the process just terminated
+            }
+        }
+        return new long[] { cpu, rss, count };
+    }
+
+    /**
+     * Reads utime, stime, cutime and cstime.
+     */
+    private static long readCpu(int pid) throws IOException {
+        String stat = readLine(new File("/proc/" + pid + "/stat"));
+        // the command name may contain spaces, fields are counted after it
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        long ticks = 0;
+        for (int i = 11; i <= 14; i++)
+            ticks += Long.parseLong(fields[i]);
+        return ticks * 1000 / TICKS_PER_SECOND;
+    }
+
+    private static long readPeakRss(int pid) throws IOException {
+        BufferedReader r = new BufferedReader(new FileReader("/proc/" + pid
+                + "/status"));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.startsWith("VmHWM:"))
+                    return Long.parseLong(line.substring(6).replace("kB", "")
+                            .trim());
+            }
+            return 0;
+        } finally {
+            r.close();
+        }
+    }
+
+    private static String readLine(File f) throws IOException {
+        BufferedReader r = new BufferedReader(new FileReader(f));
+        try {
+            String line = r.readLine();
+            if (line == null)
+                throw new IOException("Empty " + f);
+            return line;
+        } finally {
+            r.close();
+        }
+    }
+}
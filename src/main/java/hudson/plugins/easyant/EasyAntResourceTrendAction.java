@@ -0,0 +1,132 @@
+package hudson.plugins.easyant;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Project;
+import hudson.model.TransientProjectActionFactory;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jfree.chart.JFreeChart;
+
+/**
+ * Shows the trend of the resources used by the EasyAnt steps of a project, as
+ * recorded by {@link EasyAntResourcesAction}.
+ */
+public class EasyAntResourceTrendAction implements Action {
+    public final AbstractProject<?, ?> project;
+
+    public EasyAntResourceTrendAction(AbstractProject<?, ?> project) {
+        this.project = project;
+    }
+
+    public String getIconFileName() {
+        return "graph.gif";
+    }
+
+    public String getDisplayName() {
+        return Messages.EasyAntResourceTrendAction_DisplayName();
+    }
+
+    public String getUrlName() {
+        return "easyant-resources";
+    }
+
+    /**
+     * Gets the last builds which recorded their resources, oldest first.
+     */
+    public List<AbstractBuild<?, ?>> getBuilds() {
+        List<AbstractBuild<?, ?>> builds = new ArrayList<AbstractBuild<?, ?>>();
+        for (AbstractBuild<?, ?> b = project.getLastCompletedBuild(); b != null
+                && builds.size() < EasyAntTargetTrend.MAX_BUILDS; b = b
+                .getPreviousCompletedBuild()) {
+            if (b.getAction(EasyAntResourcesAction.class) != null)
+                builds.add(b);
+        }
+        Collections.reverse(builds);
+        return builds;
+    }
+
+    public Class<EasyAntResourcesAction> getActionClass() {
+        return EasyAntResourcesAction.class;
+    }
+
+    /**
+     * Graph of the wall, CPU and GC times, in seconds.
+     */
+    public Graph getTimeGraph() {
+        return new Graph(getTimestamp(), 600, 300) {
+            @Override
+            protected JFreeChart createGraph() {
+                DataSetBuilder<String, Integer> dsb = new DataSetBuilder<String, Integer>();
+                for (AbstractBuild<?, ?> b : getBuilds()) {
+                    EasyAntResourcesAction a = b
+                            .getAction(EasyAntResourcesAction.class);
+                    dsb.add(a.getWallTime() / 1000.0,
+                            Messages.EasyAntResourceTrendAction_Wall(),
+                            b.getNumber());
+                    if (a.getCpuTime() >= 0)
+                        dsb.add(a.getCpuTime() / 1000.0,
+                                Messages.EasyAntResourceTrendAction_Cpu(),
+                                b.getNumber());
+                    if (a.getGcTime() >= 0)
+                        dsb.add(a.getGcTime() / 1000.0,
+                                Messages.EasyAntResourceTrendAction_Gc(),
+                                b.getNumber());
+                }
+                return EasyAntTrendAction.createChart(dsb.build(),
+                        Messages.EasyAntTrendAction_Seconds());
+            }
+        };
+    }
+
+    /**
+     * Graph of the peak resident set size, in megabytes.
+     */
+    public Graph getMemoryGraph() {
+        return new Graph(getTimestamp(), 600, 300) {
+            @Override
+            protected JFreeChart createGraph() {
+                DataSetBuilder<String, Integer> dsb = new DataSetBuilder<String, Integer>();
+                for (AbstractBuild<?, ?> b : getBuilds()) {
+                    EasyAntResourcesAction a = b
+                            .getAction(EasyAntResourcesAction.class);
+                    if (a.getPeakRss() >= 0)
+                        dsb.add(a.getPeakRssMegabytes(),
+                                Messages.EasyAntResourceTrendAction_PeakRss(),
+                                b.getNumber());
+                }
+                return EasyAntTrendAction.createChart(dsb.build(),
+                        Messages.EasyAntResourceTrendAction_Megabytes());
+            }
+        };
+    }
+
+    private Calendar getTimestamp() {
+        AbstractBuild<?, ?> last = project.getLastCompletedBuild();
+        return last != null ? last.getTimestamp() : Calendar.getInstance();
+    }
+
+    @Extension
+    public static class FactoryImpl extends TransientProjectActionFactory {
+        @Override
+        public Collection<? extends Action> createFor(AbstractProject target) {
+            if (target instanceof Project) {
+                EasyAnt easyAnt = ((Project<?, ?>) target).getBuildersList()
+                        .get(EasyAnt.class);
+                if (easyAnt != null && easyAnt.isRecordResources())
+                    return Collections.singleton(new EasyAntResourceTrendAction(
+                            target));
+            }
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package hudson.plugins.easyant;
+
+import hudson.model.Action;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Shows, on the build page, the resources used by the EasyAnt steps of the
+ * build. Times are in milliseconds and memory in kilobytes; -1 means that the
+ * value could not be measured.
+ */
+@ExportedBean
+public class EasyAntResourcesAction implements Action {
+    private long wallTime;
+    private long cpuTime = -1;
+    private long peakRss = -1;
+    private long gcTime = -1;
+    private long consoleBytes;
+    private long lines;
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return Messages.EasyAntResourcesAction_DisplayName();
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    @Exported
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    @Exported
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Gets the highest peak resident set size of the steps.
+     */
+    @Exported
+    public long getPeakRss() {
+        return peakRss;
+    }
+
+    @Exported
+    public long getGcTime() {
+        return gcTime;
+    }
+
+    @Exported
+    public long getConsoleBytes() {
+        return consoleBytes;
+    }
+
+    @Exported
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * Lines of console output per second.
+     */
+    @Exported
+    public long getLineRate() {
+        return wallTime == 0 ? 0 : lines * 1000 / wallTime;
+    }
+
+    public long getPeakRssMegabytes() {
+        return peakRss / 1024;
+    }
+
+    public long getConsoleKilobytes() {
+        return consoleBytes / 1024;
+    }
+
+    synchronized void add(long wallTime, long cpuTime, long peakRss,
+            long gcTime, long consoleBytes, long lines) {
+        this.wallTime += wallTime;
+        this.cpuTime = sum(this.cpuTime, cpuTime);
+        this.peakRss = Math.max(this.peakRss, peakRss);
+        this.gcTime = sum(this.gcTime, gcTime);
+        this.consoleBytes += consoleBytes;
+        this.lines += lines;
+    }
+
+    private static long sum(long a, long b) {
+        if (a < 0)
+            return b;
+        return b < 0 ? a : a + b;
+    }
+}
@@ -0,0 +1,95 @@
+package hudson.plugins.easyant;
+
+import java.io.Serializable;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * An EasyAnt target executed during a build, as recorded in the
+ * {@link EasyAntTargetsAction} index.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class EasyAntTarget implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String name;
+
+    /**
+     * Offset of the target in the build log, starting with its console note,
+     * or -1 if it is not known.
+     */
+    private long offset;
+
+    /**
+     * Number of bytes of the target in the build log, or 0 if it is not known.
+     */
+    private long length;
+
+    private long start;
+    private long end;
+    private int lines;
+
+    public EasyAntTarget(String name, long offset, long start) {
+        this.name = name;
+        this.offset = offset;
+        this.start = start;
+        this.end = start;
+    }
+
+    @Exported
+    public String getName() {
+        return name;
+    }
+
+    @Exported
+    public long getOffset() {
+        return offset;
+    }
+
+    @Exported
+    public long getLength() {
+        return length;
+    }
+
+    @Exported
+    public long getStart() {
+        return start;
+    }
+
+    @Exported
+    public long getEnd() {
+        return end;
+    }
+
+    @Exported
+    public long getDuration() {
+        return end - start;
+    }
+
+    @Exported
+    public int getLines() {
+        return lines;
+    }
+
+    void line() {
+        lines++;
+    }
+
+    void end(long end) {
+        this.end = end;
+    }
+
+    void offset(long offset) {
+        this.offset = offset;
+    }
+
+    void length(long length) {
+        this.length = length;
+    }
+
+    void times(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+}
@@ -6,8 +6,6 @@ import hudson.console.ConsoleAnnotationDescriptor;
 import hudson.console.ConsoleAnnotator;
 import hudson.console.ConsoleNote;
 
-import java.util.regex.Pattern;
-
 /**
  * Marks the log line "TARGET:" that EasyAnt uses to mark the beginning of the
  * new target.
@@ -24,12 +22,24 @@ public final class EasyAntTargetNote extends ConsoleNote {
         if (!ENABLED)
             return null;
 
-        MarkupText.SubText t = text.findToken(Pattern.compile(".*(?=:)"));
-        if (t != null)
-            t.addMarkup(0, t.length(), "<b class=easyant-target>", "</b>");
+        int end = targetEnd(text.getText());
+        if (end > 0)
+            text.addMarkup(0, end, "<b class=easyant-target>", "</b>");
         return null;
     }
 
+    /**
+     * Returns the position of the last ':' of the first line, which ends the
+     * target name, or -1 if there is none.
+     */
+    static int targetEnd(String line) {
+        int eol = 0;
+        while (eol < line.length() && line.charAt(eol) != '\n'
+                && line.charAt(eol) != '\r')
+            eol++;
+        return line.lastIndexOf(':', eol - 1);
+    }
+
     @Extension
     public static final class DescriptorImpl extends
             ConsoleAnnotationDescriptor {
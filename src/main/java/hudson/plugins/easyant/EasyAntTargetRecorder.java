@@ -0,0 +1,190 @@
+package hudson.plugins.easyant;
+
+import hudson.model.AbstractBuild;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records the targets seen by {@link EasyAntConsoleAnnotator} and adds them to
+ * the {@link EasyAntTargetsAction} of the build.
+ */
+public class EasyAntTargetRecorder extends EasyAntConsoleListener implements
+        Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Size of the build log when the annotator started writing, or -1 if the
+     * offsets of the targets are not known.
+     */
+    private long base;
+
+    /**
+     * Prepended to the target names.
+     */
+    private final String prefix;
+
+    private final List<EasyAntTarget> targets = new ArrayList<EasyAntTarget>();
+
+    private EasyAntTarget current;
+
+    public EasyAntTargetRecorder(long base) {
+        this.base = base;
+        this.prefix = "";
+    }
+
+    /**
+     * Creates a recorder for output which is not written as is to the build
+     * log, so that the offsets of the targets are not known.
+     */
+    public EasyAntTargetRecorder(String prefix) {
+        this.base = -1;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public void onTarget(String name, long position) {
+        long now = System.currentTimeMillis();
+        finish(now, position);
+        current = new EasyAntTarget(prefix + name, base < 0 ? -1 : base
+                + position, now);
+        targets.add(current);
+    }
+
+    @Override
+    public void onOutcome(boolean success, long position) {
+        finish(System.currentTimeMillis(), position);
+    }
+
+    @Override
+    public void onLine(byte[] b, int len) {
+        if (current != null)
+            current.line();
+    }
+
+    @Override
+    public void onEnd(long position) {
+        finish(System.currentTimeMillis(), position);
+    }
+
+    private void finish(long now, long position) {
+        if (current != null) {
+            current.end(now);
+            if (base >= 0)
+                current.length(base + position - current.getOffset());
+            current = null;
+        }
+    }
+
+    /**
+     * Replaces the timings guessed from the output by the ones reported by
+     * EasyAnt. Reported targets which were not seen in the output, because
+     * they printed nothing, are added without offset.
+     */
+    public void merge(List<EasyAntTarget> reported) {
+        int i = 0;
+        for (EasyAntTarget r : reported) {
+            String name = prefix + r.getName();
+            int j = i;
+            while (j < targets.size() && !targets.get(j).getName().equals(name))
+                j++;
+            if (j < targets.size()) {
+                targets.get(j).times(r.getStart(), r.getEnd());
+                i = j + 1;
+            } else {
+                EasyAntTarget t = new EasyAntTarget(name, -1, r.getStart());
+                t.end(r.getEnd());
+                targets.add(i++, t);
+            }
+        }
+    }
+
+    /**
+     * Moves the times of the targets, recorded with another clock.
+     */
+    void shift(long delta) {
+        for (EasyAntTarget t : targets)
+            t.times(t.getStart() + delta, t.getEnd() + delta);
+    }
+
+    long getBase() {
+        return base;
+    }
+
+    /**
+     * Moves the offsets of the targets to the given size of the build log
+     * when the annotator started writing, once it is known.
+     */
+    void rebase(long base) {
+        if (this.base < 0)
+            return;
+        long delta = base - this.base;
+        for (EasyAntTarget t : targets) {
+            if (t.getOffset() >= 0)
+                t.offset(t.getOffset() + delta);
+        }
+        this.base = base;
+    }
+
+    /**
+     * Wraps the annotator writing to the given build log, so that the offsets
+     * of the targets start from the size of the log when the process writes
+     * its first bytes, that is after the command line printed by the
+     * launcher.
+     */
+    OutputStream rebaseOnFirstWrite(OutputStream annotator,
+            final PrintStream logger, final File log) {
+        return new FilterOutputStream(annotator) {
+            private boolean started;
+
+            @Override
+            public void write(int b) throws IOException {
+                start();
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                start();
+                out.write(b, off, len);
+            }
+
+            private void start() {
+                if (!started) {
+                    started = true;
+                    logger.flush();
+                    rebase(log.length());
+                }
+            }
+        };
+    }
+
+    public List<EasyAntTarget> getTargets() {
+        return targets;
+    }
+
+    /**
+     * Appends the recorded targets to the index of the build, so that several
+     * EasyAnt steps, or modules built at once, of the same build share one
+     * index.
+     */
+    public void save(AbstractBuild<?, ?> build) throws IOException {
+        if (targets.isEmpty())
+            return;
+        EasyAntTargetsAction action;
+        synchronized (build) {
+            action = build.getAction(EasyAntTargetsAction.class);
+            if (action == null) {
+                action = new EasyAntTargetsAction(build);
+                build.addAction(action);
+            }
+        }
+        action.addAll(targets);
+    }
+}
@@ -0,0 +1,225 @@
+package hudson.plugins.easyant;
+
+import hudson.XmlFile;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.util.XStream2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Durations of the EasyAnt targets over the last builds of a project.
+ * 
+ * The trend is kept in a sidecar file of the project directory and updated
+ * when a build completes, so that only the {@link EasyAntTargetsAction} of the
+ * new build has to be read. A trend is not modified once loaded: adding or
+ * removing a build gives a new trend, so that it can be read while the builds
+ * complete.
+ */
+public final class EasyAntTargetTrend {
+    /**
+     * Number of builds kept in the trend.
+     */
+    public static int MAX_BUILDS = Integer.getInteger(
+            EasyAntTargetTrend.class.getName() + ".builds", 50);
+
+    /**
+     * Oldest build first.
+     */
+    private final List<Entry> builds = new ArrayList<Entry>();
+
+    /**
+     * Target durations of one build. A target executed several times in the
+     * build (several EasyAnt steps or modules) is counted once with the total
+     * duration.
+     */
+    public static final class Entry {
+        private final int number;
+        private final Map<String, Long> durations = new LinkedHashMap<String, Long>();
+
+        Entry(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public Map<String, Long> getDurations() {
+            return Collections.unmodifiableMap(durations);
+        }
+    }
+
+    /**
+     * Statistics of a target over the builds of the trend.
+     */
+    public static final class TargetStats {
+        private final String name;
+        private long total;
+        private long max;
+        private long last;
+        private int builds;
+
+        TargetStats(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getAverage() {
+            return total / builds;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getLast() {
+            return last;
+        }
+
+        public int getBuilds() {
+            return builds;
+        }
+    }
+
+    public List<Entry> getBuilds() {
+        return Collections.unmodifiableList(builds);
+    }
+
+    /**
+     * Gets the targets with the highest average duration, slowest first.
+     */
+    public List<TargetStats> getSlowest(int n) {
+        Map<String, TargetStats> stats = new HashMap<String, TargetStats>();
+        for (Entry e : builds) {
+            for (Map.Entry<String, Long> d : e.durations.entrySet()) {
+                TargetStats s = stats.get(d.getKey());
+                if (s == null) {
+                    s = new TargetStats(d.getKey());
+                    stats.put(d.getKey(), s);
+                }
+                long duration = d.getValue();
+                s.total += duration;
+                s.max = Math.max(s.max, duration);
+                s.last = duration;
+                s.builds++;
+            }
+        }
+        List<TargetStats> r = new ArrayList<TargetStats>(stats.values());
+        Collections.sort(r, new Comparator<TargetStats>() {
+            public int compare(TargetStats o1, TargetStats o2) {
+                long a1 = o1.getAverage(), a2 = o2.getAverage();
+                return a1 < a2 ? 1 : a1 > a2 ? -1 : 0;
+            }
+        });
+        return r.size() > n ? r.subList(0, n) : r;
+    }
+
+    /**
+     * Gets the trend with the given completed build, or this trend if the
+     * build has no targets or is already in it.
+     */
+    EasyAntTargetTrend with(AbstractBuild<?, ?> build) {
+        EasyAntTargetTrend trend = new EasyAntTargetTrend();
+        trend.builds.addAll(builds);
+        return trend.add(build) ? trend : this;
+    }
+
+    /**
+     * Gets the trend without the given build, or this trend if the build is
+     * not in it.
+     */
+    EasyAntTargetTrend without(AbstractBuild<?, ?> build) {
+        EasyAntTargetTrend trend = new EasyAntTargetTrend();
+        for (Entry e : builds) {
+            if (e.number != build.getNumber())
+                trend.builds.add(e);
+        }
+        return trend.builds.size() < builds.size() ? trend : this;
+    }
+
+    private boolean add(AbstractBuild<?, ?> build) {
+        EasyAntTargetsAction a = build.getAction(EasyAntTargetsAction.class);
+        if (a == null)
+            return false;
+        for (Entry e : builds) {
+            if (e.number == build.getNumber())
+                return false;
+        }
+        Entry e = new Entry(build.getNumber());
+        for (EasyAntTarget t : a.getTargets()) {
+            Long d = e.durations.get(t.getName());
+            e.durations.put(t.getName(), (d == null ? 0 : d) + t.getDuration());
+        }
+        // builds may complete out of order
+        int i = builds.size();
+        while (i > 0 && builds.get(i - 1).number > e.number)
+            i--;
+        builds.add(i, e);
+        while (builds.size() > MAX_BUILDS)
+            builds.remove(0);
+        return true;
+    }
+
+    /**
+     * Loads the trend of the project, building it from the last builds the
+     * first time.
+     */
+    static EasyAntTargetTrend load(AbstractProject<?, ?> project) {
+        XmlFile file = getDataFile(project);
+        if (file.exists()) {
+            try {
+                return (EasyAntTargetTrend) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        EasyAntTargetTrend trend = new EasyAntTargetTrend();
+        int n = 0;
+        for (AbstractBuild<?, ?> b : project.getBuilds()) {
+            if (n++ >= MAX_BUILDS)
+                break;
+            if (!b.isBuilding())
+                trend.add(b);
+        }
+        trend.save(project);
+        return trend;
+    }
+
+    void save(AbstractProject<?, ?> project) {
+        XmlFile file = getDataFile(project);
+        try {
+            file.write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+        }
+    }
+
+    private static XmlFile getDataFile(AbstractProject<?, ?> project) {
+        return new XmlFile(XSTREAM, new File(project.getRootDir(),
+                "easyant-trend.xml"));
+    }
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("easyant-trend", EasyAntTargetTrend.class);
+        XSTREAM.alias("build", Entry.class);
+    }
+
+    private static final Logger LOGGER = Logger
+            .getLogger(EasyAntTargetTrend.class.getName());
+}
@@ -0,0 +1,246 @@
+package hudson.plugins.easyant;
+
+import hudson.XmlFile;
+import hudson.console.ConsoleAnnotationOutputStream;
+import hudson.console.ConsoleAnnotator;
+import hudson.model.AbstractBuild;
+import hudson.model.Action;
+import hudson.model.Api;
+import hudson.util.XStream2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Index of the EasyAnt targets executed by a build: name, offset in the log,
+ * timings and line count.
+ * 
+ * The index is kept in a sidecar file of the build directory rather than in
+ * build.xml, so that loading the build does not load thousands of targets.
+ * 
+ * The "console" page shows the log target by target: each target is loaded
+ * on demand from its offset, so that a single target of a huge log can be
+ * read without transferring or annotating the rest of it.
+ */
+@ExportedBean
+public class EasyAntTargetsAction implements Action {
+    public final AbstractBuild<?, ?> owner;
+
+    private transient List<EasyAntTarget> targets;
+
+    public EasyAntTargetsAction(AbstractBuild<?, ?> owner) {
+        this.owner = owner;
+    }
+
+    public String getIconFileName() {
+        return "clock.gif";
+    }
+
+    public String getDisplayName() {
+        return Messages.EasyAntTargetsAction_DisplayName();
+    }
+
+    public String getUrlName() {
+        return "easyant-targets";
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * Gets the executed targets, in execution order.
+     */
+    @Exported
+    public synchronized List<EasyAntTarget> getTargets() {
+        if (targets == null)
+            targets = load();
+        return Collections.unmodifiableList(targets);
+    }
+
+    @Exported
+    public long getTotalDuration() {
+        long total = 0;
+        for (EasyAntTarget t : getTargets())
+            total += t.getDuration();
+        return total;
+    }
+
+    /**
+     * Serves, annotated, at most {@link #MAX_SLICE} bytes of the log of a
+     * target starting at the given offset within the target. As with
+     * progressive text, the X-More-Data header tells whether the target has
+     * more output and X-Text-Size the offset to ask for next.
+     */
+    public void doSlice(StaplerResponse rsp, @QueryParameter int index,
+            @QueryParameter long start) throws IOException {
+        List<EasyAntTarget> targets = getTargets();
+        if (index < 0 || index >= targets.size()
+                || targets.get(index).getOffset() < 0) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        Slice slice = slice(owner.getLogFile(), targets, index, start);
+        rsp.setHeader("X-Text-Size", String.valueOf(slice.next));
+        if (slice.more)
+            rsp.setHeader("X-More-Data", "true");
+
+        rsp.setContentType("text/html;charset=UTF-8");
+        Writer w = rsp.getWriter();
+        Object context = owner;
+        ConsoleAnnotationOutputStream<Object> out = new ConsoleAnnotationOutputStream<Object>(
+                w, ConsoleAnnotator.initial(context), context,
+                owner.getCharset());
+        out.write(slice.data, 0, slice.length);
+        out.forceEol();
+        w.flush();
+    }
+
+    /**
+     * Part of the log of a target.
+     */
+    static final class Slice {
+        final byte[] data;
+        final int length;
+        /**
+         * Offset within the target to ask for next.
+         */
+        final long next;
+        /**
+         * True if the target has more output.
+         */
+        final boolean more;
+
+        Slice(byte[] data, int length, long next, boolean more) {
+            this.data = data;
+            this.length = length;
+            this.next = next;
+            this.more = more;
+        }
+    }
+
+    /**
+     * Reads at most {@link #MAX_SLICE} bytes of the log of a target, starting
+     * at the given offset within the target.
+     */
+    static Slice slice(File log, List<EasyAntTarget> targets, int index,
+            long start) throws IOException {
+        EasyAntTarget target = targets.get(index);
+        long from = target.getOffset() + Math.max(0, start);
+        long to = getSliceEnd(targets, index, log.length());
+
+        byte[] buf = new byte[(int) Math.max(0, Math.min(to - from, MAX_SLICE))];
+        int len = buf.length;
+        RandomAccessFile raf = new RandomAccessFile(log, "r");
+        try {
+            raf.seek(from);
+            raf.readFully(buf);
+            if (from + len < to) {
+                // stop at a line end, so that no console note is cut in two
+                int eol = lastLineEnd(buf, 0, len);
+                while (eol == 0 && from + len < to) {
+                    // a line longer than a slice: read on to its end
+                    int n = (int) Math.min(to - from - len, MAX_SLICE);
+                    byte[] grown = new byte[len + n];
+                    System.arraycopy(buf, 0, grown, 0, len);
+                    raf.readFully(grown, len, n);
+                    eol = lastLineEnd(grown, len, len + n);
+                    buf = grown;
+                    len += n;
+                }
+                if (eol > 0)
+                    len = eol;
+            }
+        } finally {
+            raf.close();
+        }
+        return new Slice(buf, len, from + len - target.getOffset(), from
+                + len < to);
+    }
+
+    /**
+     * Gets the length of the data up to its last line end after the given
+     * index, or 0 if there is none.
+     */
+    private static int lastLineEnd(byte[] buf, int from, int to) {
+        for (int eol = to; eol > from; eol--)
+            if (buf[eol - 1] == '\n')
+                return eol;
+        return 0;
+    }
+
+    /**
+     * Gets the offset in the log where a target ends.
+     */
+    private static long getSliceEnd(List<EasyAntTarget> targets, int index,
+            long logLength) {
+        EasyAntTarget target = targets.get(index);
+        if (target.getLength() > 0)
+            return Math.min(logLength, target.getOffset() + target.getLength());
+        // indexes recorded before the length was: up to the next target
+        for (int i = index + 1; i < targets.size(); i++) {
+            long offset = targets.get(i).getOffset();
+            if (offset > target.getOffset())
+                return Math.min(logLength, offset);
+        }
+        return logLength;
+    }
+
+    /**
+     * Appends targets to the index. Called by the modules built at once, so
+     * that the index is read, extended and written by one of them at a time.
+     */
+    synchronized void addAll(List<EasyAntTarget> added) throws IOException {
+        List<EasyAntTarget> all = new ArrayList<EasyAntTarget>(getTargets());
+        all.addAll(added);
+        getDataFile().write(all);
+        targets = all;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<EasyAntTarget> load() {
+        XmlFile file = getDataFile();
+        if (file.exists()) {
+            try {
+                return (List<EasyAntTarget>) file.read();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+        return new ArrayList<EasyAntTarget>();
+    }
+
+    private XmlFile getDataFile() {
+        return new XmlFile(XSTREAM, new File(owner.getRootDir(),
+                "easyant-targets.xml"));
+    }
+
+    /**
+     * Maximum number of bytes of log served at once.
+     */
+    public static int MAX_SLICE = Integer.getInteger(
+            EasyAntTargetsAction.class.getName() + ".maxSlice", 256 * 1024);
+
+    private static final XStream2 XSTREAM = new XStream2();
+
+    static {
+        XSTREAM.alias("target", EasyAntTarget.class);
+    }
+
+    private static final Logger LOGGER = Logger
+            .getLogger(EasyAntTargetsAction.class.getName());
+}
@@ -0,0 +1,220 @@
+package hudson.plugins.easyant;
+
+import hudson.FilePath.FileCallable;
+import hudson.model.AbstractBuild;
+import hudson.remoting.VirtualChannel;
+import hudson.tasks.junit.SuiteResult;
+import hudson.tasks.junit.TestResultAction;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.tools.ant.DirectoryScanner;
+
+/**
+ * Splits the test classes of a step into shards of about the same duration,
+ * using the durations of the test suites of the last completed build. The
+ * targets of the step but the test targets are run once by a single process,
+ * then each shard is run by its own EasyAnt process, running the test targets
+ * only, which selects its tests from the following properties:
+ * <dl>
+ * <dt>easyant.shard.index, easyant.shard.count</dt>
+ * <dd>the number of the shard, from 1, and the number of shards.</dd>
+ * <dt>easyant.shard.tests</dt>
+ * <dd>the comma separated names of the test classes of the shard.</dd>
+ * <dt>easyant.shard.includesfile</dt>
+ * <dd>a file listing the tests of the shard as patterns relative to the source
+ * directory, such as org/example/FooTest.*, to be used as the includesfile of
+ * a fileset.</dd>
+ * </dl>
+ */
+final class EasyAntTestSharder {
+    static final String INDEX_PROPERTY = "easyant.shard.index";
+    static final String COUNT_PROPERTY = "easyant.shard.count";
+    static final String TESTS_PROPERTY = "easyant.shard.tests";
+    static final String INCLUDES_FILE_PROPERTY = "easyant.shard.includesfile";
+
+    /**
+     * Duration assumed for tests without history, in milliseconds, when no
+     * test has any.
+     */
+    private static final long DEFAULT_DURATION = 1000;
+
+    private EasyAntTestSharder() {
+    }
+
+    /**
+     * Gets the durations of the test classes in the last completed build, in
+     * milliseconds.
+     */
+    static Map<String, Long> durations(AbstractBuild<?, ?> build) {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        AbstractBuild<?, ?> previous = build.getPreviousCompletedBuild();
+        TestResultAction tests = previous == null ? null : previous
+                .getAction(TestResultAction.class);
+        if (tests == null)
+            return durations;
+        for (SuiteResult suite : tests.getResult().getSuites()) {
+            Long d = durations.get(suite.getName());
+            long ms = (long) (suite.getDuration() * 1000);
+            durations.put(suite.getName(), d == null ? ms : d + ms);
+        }
+        return durations;
+    }
+
+    /**
+     * Assigns each test to the least loaded shard, longest tests first. Tests
+     * without history count for the average duration of the others.
+     */
+    static List<List<String>> split(List<String> tests,
+            final Map<String, Long> durations, int count) {
+        long total = 0;
+        int known = 0;
+        for (String t : tests) {
+            Long d = durations.get(t);
+            if (d != null) {
+                total += d;
+                known++;
+            }
+        }
+        final long unknown = known == 0 ? DEFAULT_DURATION : total / known;
+
+        List<String> sorted = new ArrayList<String>(tests);
+        Collections.sort(sorted, new Comparator<String>() {
+            public int compare(String a, String b) {
+                long d = duration(b) - duration(a);
+                return d < 0 ? -1 : d > 0 ? 1 : a.compareTo(b);
+            }
+
+            private long duration(String test) {
+                Long d = durations.get(test);
+                return d != null ? d : unknown;
+            }
+        });
+
+        PriorityQueue<Shard> shards = new PriorityQueue<Shard>();
+        List<List<String>> split = new ArrayList<List<String>>();
+        for (int i = 0; i < Math.min(count, tests.size()); i++) {
+            Shard s = new Shard(i);
+            shards.add(s);
+            split.add(s.tests);
+        }
+        for (String t : sorted) {
+            Shard s = shards.poll();
+            Long d = durations.get(t);
+            s.tests.add(t);
+            s.duration += d != null ? d : unknown;
+            shards.add(s);
+        }
+        return split;
+    }
+
+    private static final class Shard implements Comparable<Shard> {
+        private final int index;
+        private final List<String> tests = new ArrayList<String>();
+        private long duration;
+
+        Shard(int index) {
+            this.index = index;
+        }
+
+        public int compareTo(Shard o) {
+            if (duration != o.duration)
+                return duration < o.duration ? -1 : 1;
+            return index - o.index;
+        }
+    }
+
+    /**
+     * Removes the test targets from the targets of a step, which are run once
+     * before the shards.
+     */
+    static String without(String targets, String testTargets) {
+        List<String> removed = Arrays.asList(testTargets.trim().split("\\s+"));
+        StringBuilder b = new StringBuilder();
+        for (String t : targets.trim().split("\\s+")) {
+            if (t.length() > 0 && !removed.contains(t))
+                b.append(b.length() == 0 ? "" : " ").append(t);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Gets the patterns selecting the given test classes in a source or class
+     * directory.
+     */
+    static String toIncludes(List<String> tests) {
+        StringBuilder b = new StringBuilder();
+        for (String t : tests)
+            b.append(t.replace('.', '/')).append(".*\n");
+        return b.toString();
+    }
+
+    /**
+     * Finds the test classes whose sources match Ant-style include patterns
+     * under the module root, and reads their fully qualified names.
+     */
+    static final class Scanner implements FileCallable<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private static final Pattern PACKAGE = Pattern
+                .compile("^\\s*package\\s+([\\w.]+)\\s*;");
+
+        private final String includes;
+
+        Scanner(String includes) {
+            this.includes = includes;
+        }
+
+        public List<String> invoke(File root, VirtualChannel channel)
+                throws IOException {
+            DirectoryScanner ds = new DirectoryScanner();
+            ds.setBasedir(root);
+            ds.setIncludes(includes.trim().split("[,\\s]+"));
+            ds.scan();
+
+            List<String> tests = new ArrayList<String>();
+            for (String path : ds.getIncludedFiles()) {
+                File f = new File(root, path);
+                String name = f.getName();
+                int dot = name.lastIndexOf('.');
+                if (dot > 0)
+                    name = name.substring(0, dot);
+                String pkg = readPackage(f);
+                tests.add(pkg == null ? name : pkg + '.' + name);
+            }
+            Collections.sort(tests);
+            return tests;
+        }
+
+        private static String readPackage(File source) throws IOException {
+            BufferedReader r = new BufferedReader(new FileReader(source));
+            try {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    Matcher m = PACKAGE.matcher(line);
+                    if (m.find())
+                        return m.group(1);
+                    // the package comes before the first type
+                    if (line.matches("^\\s*(import|public|class|@).*"))
+                        return null;
+                }
+                return null;
+            } finally {
+                r.close();
+            }
+        }
+    }
+}
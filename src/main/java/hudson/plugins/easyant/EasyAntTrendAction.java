@@ -0,0 +1,196 @@
+package hudson.plugins.easyant;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Project;
+import hudson.model.TaskListener;
+import hudson.model.TransientProjectActionFactory;
+import hudson.model.listeners.RunListener;
+import hudson.util.ChartUtil;
+import hudson.util.DataSetBuilder;
+import hudson.util.Graph;
+
+import java.awt.Color;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.axis.CategoryAxis;
+import org.jfree.chart.axis.CategoryLabelPositions;
+import org.jfree.chart.plot.CategoryPlot;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.category.CategoryDataset;
+
+/**
+ * Shows the trend of the EasyAnt target durations of a project, and its
+ * slowest targets.
+ */
+public class EasyAntTrendAction implements Action {
+    /**
+     * Number of targets in the ranking.
+     */
+    public static final int SLOWEST = 20;
+
+    /**
+     * Number of targets drawn in the graph.
+     */
+    private static final int GRAPHED = 10;
+
+    public final AbstractProject<?, ?> project;
+
+    /**
+     * Trend of the project, loaded on first use.
+     */
+    private EasyAntTargetTrend trend;
+
+    public EasyAntTrendAction(AbstractProject<?, ?> project) {
+        this.project = project;
+    }
+
+    public String getIconFileName() {
+        return "graph.gif";
+    }
+
+    public String getDisplayName() {
+        return Messages.EasyAntTrendAction_DisplayName();
+    }
+
+    public String getUrlName() {
+        return "easyant-trend";
+    }
+
+    public synchronized EasyAntTargetTrend getTrend() {
+        if (trend == null)
+            trend = EasyAntTargetTrend.load(project);
+        return trend;
+    }
+
+    /**
+     * Adds a completed build to the trend.
+     */
+    synchronized void add(AbstractBuild<?, ?> build) {
+        EasyAntTargetTrend t = getTrend().with(build);
+        if (t != trend) {
+            trend = t;
+            t.save(project);
+        }
+    }
+
+    /**
+     * Removes a deleted build from the trend.
+     */
+    synchronized void remove(AbstractBuild<?, ?> build) {
+        EasyAntTargetTrend t = getTrend().without(build);
+        if (t != trend) {
+            trend = t;
+            t.save(project);
+        }
+    }
+
+    public List<EasyAntTargetTrend.TargetStats> getSlowest() {
+        return getTrend().getSlowest(SLOWEST);
+    }
+
+    /**
+     * Graph of the durations of the slowest targets, in seconds.
+     */
+    public Graph getGraph() {
+        final EasyAntTargetTrend trend = getTrend();
+        AbstractBuild<?, ?> last = project.getLastCompletedBuild();
+        Calendar timestamp = last != null ? last.getTimestamp() : Calendar
+                .getInstance();
+        return new Graph(timestamp, 600, 300) {
+            @Override
+            protected JFreeChart createGraph() {
+                return createChart(buildDataSet(trend),
+                        Messages.EasyAntTrendAction_Seconds());
+            }
+        };
+    }
+
+    private CategoryDataset buildDataSet(EasyAntTargetTrend trend) {
+        Set<String> graphed = new HashSet<String>();
+        for (EasyAntTargetTrend.TargetStats s : trend.getSlowest(GRAPHED))
+            graphed.add(s.getName());
+
+        DataSetBuilder<String, Integer> dsb = new DataSetBuilder<String, Integer>();
+        for (EasyAntTargetTrend.Entry e : trend.getBuilds()) {
+            for (Map.Entry<String, Long> d : e.getDurations().entrySet()) {
+                if (graphed.contains(d.getKey()))
+                    dsb.add(d.getValue() / 1000.0, d.getKey(), e.getNumber());
+            }
+        }
+        return dsb.build();
+    }
+
+    /**
+     * Draws a line per series over the builds, as do the other trends of the
+     * plugin.
+     */
+    static JFreeChart createChart(CategoryDataset dataset, String unit) {
+        JFreeChart chart = ChartFactory.createLineChart(null, null, unit,
+                dataset, PlotOrientation.VERTICAL, true, true, false);
+        chart.setBackgroundPaint(Color.white);
+
+        CategoryPlot plot = chart.getCategoryPlot();
+        plot.setBackgroundPaint(Color.WHITE);
+        plot.setOutlinePaint(null);
+        plot.setRangeGridlinesVisible(true);
+        plot.setRangeGridlinePaint(Color.black);
+
+        CategoryAxis domainAxis = new ChartUtil.NoOverlapCategoryAxis(null);
+        plot.setDomainAxis(domainAxis);
+        domainAxis.setCategoryLabelPositions(CategoryLabelPositions.UP_90);
+        domainAxis.setLowerMargin(0.0);
+        domainAxis.setUpperMargin(0.0);
+        domainAxis.setCategoryMargin(0.0);
+        return chart;
+    }
+
+    @Extension
+    public static class FactoryImpl extends TransientProjectActionFactory {
+        @Override
+        public Collection<? extends Action> createFor(AbstractProject target) {
+            if (target instanceof Project
+                    && ((Project<?, ?>) target).getBuildersList().get(
+                            EasyAnt.class) != null)
+                return Collections.singleton(new EasyAntTrendAction(target));
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Adds each completed build to the trend of its project, and removes the
+     * deleted ones.
+     */
+    @Extension
+    public static class RunListenerImpl extends RunListener<AbstractBuild> {
+        public RunListenerImpl() {
+            super(AbstractBuild.class);
+        }
+
+        @Override
+        public void onCompleted(AbstractBuild r, TaskListener listener) {
+            EasyAntTrendAction a = r.getProject().getAction(
+                    EasyAntTrendAction.class);
+            if (a != null)
+                a.add(r);
+        }
+
+        @Override
+        public void onDeleted(AbstractBuild r) {
+            EasyAntTrendAction a = r.getProject().getAction(
+                    EasyAntTrendAction.class);
+            if (a != null)
+                a.remove(r);
+        }
+    }
+}
@@ -29,4 +29,40 @@ f.advanced {
     f.entry(title:_("Java Options"),field:"easyAntOpts") {
         f.expandableTextbox()
     }
+    f.entry(title:_("Shared Ivy Cache"),field:"sharedIvyCache") {
+        f.checkbox()
+    }
+    f.entry(title:_("Modules"),field:"modules") {
+        f.textbox()
+    }
+    f.entry(title:_("Parallel Modules"),field:"parallelism") {
+        f.textbox(default:"1")
+    }
+    f.entry(title:_("Skip If Unchanged"),field:"skipIfUnchanged") {
+        f.checkbox()
+    }
+    f.entry(title:_("Inputs"),field:"inputs") {
+        f.textbox()
+    }
+    f.entry(title:_("Structured Events"),field:"structuredEvents") {
+        f.checkbox()
+    }
+    f.entry(title:_("Record Resources"),field:"recordResources") {
+        f.checkbox()
+    }
+    f.entry(title:_("Build Cache"),field:"buildCache") {
+        f.checkbox()
+    }
+    f.entry(title:_("Outputs"),field:"outputs") {
+        f.textbox()
+    }
+    f.entry(title:_("Test Shards"),field:"shards") {
+        f.textbox(default:"1")
+    }
+    f.entry(title:_("Tests"),field:"tests") {
+        f.textbox()
+    }
+    f.entry(title:_("Test Targets"),field:"testTargets") {
+        f.textbox()
+    }
 }
\ No newline at end of file
@@ -1,10 +1,31 @@
 (function() {
-    // created on demand
+    // the outline is served by the index of the targets of the build, so
+    // that it does not depend on the part of the log shown by the page.
+    // Builds recorded without an index fall back to the targets of the page.
+    var indexed = null; // null until the index answered
+    var requested = false;
+
+    var queue = []; // easyant targets are queued up until we know.
+
+    function loadIndex() {
+        if (requested)  return;
+        requested = true;
+        var build = window.location.pathname.replace(/\/(console|consoleFull)$/, "/");
+        new Ajax.Updater({success: document.getElementById("side-panel")},
+            build+"easyant-targets/outline",
+            {method: "get", insertion: Insertion.Bottom, onComplete: function(rsp) {
+                indexed = rsp.status>=200 && rsp.status<300;
+                var pending = queue;
+                queue = [];
+                if (!indexed)
+                    pending.each(handle);
+            }});
+    }
+
+    // fallback: outline of the targets of the page, anchored in place
     var outline = null;
     var loading = false;
 
-    var queue = []; // easyant targets are queued up until we load outline.
-
     function loadOutline() {
         if (outline!=null)  return false;   // already loaded
 
@@ -16,7 +37,9 @@
                     if (!u.success())   return; // we can't us onSuccess because that kicks in before onComplete
                     outline = document.getElementById("console-outline-body");
                     loading = false;
-                    queue.each(handle);
+                    var pending = queue;
+                    queue = [];
+                    pending.each(handle);
                 }});
         }
         return true;
@@ -40,9 +63,14 @@
     }
 
     Behaviour.register({
-        // insert <a name="..."> for each EasyAnt target and put it into the outline
+        // the first EasyAnt target of the log brings the outline in
         "b.easyant-target" : function(e) {
-            handle(e);
+            if (indexed==null) {
+                queue.push(e);
+                loadIndex();
+            } else if (!indexed) {
+                handle(e);
+            }
         }
     });
 }());
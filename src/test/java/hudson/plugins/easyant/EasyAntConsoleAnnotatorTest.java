@@ -0,0 +1,87 @@
+package hudson.plugins.easyant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks that the byte level scanner, used for the ASCII compatible charsets,
+ * finds the same targets and outcomes as the scanner of decoded lines.
+ */
+public class EasyAntConsoleAnnotatorTest {
+    private static final String OUTPUT = "Buildfile: /workspace/module.ivy\n"
+            + "resolve:\n" + "\n" + "clean:\n"
+            + "   [delete] Deleting directory /workspace/target\n" + "\r\n"
+            + "compil\u00e9:\r\n" + "    [javac] Compiling 3 source files\n"
+            + "    [echo] done:\n" + "\n" + "not a target:\n" + "\n"
+            + "test:\n" + "BUILD FAILED\n" + "\n" + "BUILD SUCCESSFUL\n"
+            + "Total time: 2 seconds\n";
+
+    private static final List<String> EXPECTED = Arrays.asList(
+            "target clean", "target compil\u00e9", "target test",
+            "outcome false", "outcome true");
+
+    @Test
+    public void detectsAsciiCompatibleCharsets() {
+        assertTrue(EasyAntConsoleAnnotator.isAsciiCompatible(Charset
+                .forName("UTF-8")));
+        assertTrue(EasyAntConsoleAnnotator.isAsciiCompatible(Charset
+                .forName("ISO-8859-1")));
+        assertFalse(EasyAntConsoleAnnotator.isAsciiCompatible(Charset
+                .forName("UTF-16BE")));
+    }
+
+    @Test
+    public void scansBytesAndCharsAlike() throws IOException {
+        assertEquals(EXPECTED, scan("UTF-8"));
+        assertEquals(EXPECTED, scan("ISO-8859-1"));
+        assertEquals(EXPECTED, scan("UTF-16BE"));
+    }
+
+    @Test
+    public void scansOutputSplitAcrossWrites() throws IOException {
+        Charset charset = Charset.forName("UTF-8");
+        Recorder recorder = new Recorder();
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(
+                new ByteArrayOutputStream(), charset, recorder);
+        byte[] b = OUTPUT.getBytes(charset);
+        // splits the lines, and the multi-byte characters
+        for (int i = 0; i < b.length; i += 3)
+            annotator.write(b, i, Math.min(3, b.length - i));
+        annotator.finish();
+        assertEquals(EXPECTED, recorder.events);
+    }
+
+    private static List<String> scan(String name) throws IOException {
+        Charset charset = Charset.forName(name);
+        Recorder recorder = new Recorder();
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(
+                new ByteArrayOutputStream(), charset, recorder);
+        annotator.write(OUTPUT.getBytes(charset));
+        annotator.finish();
+        return recorder.events;
+    }
+
+    private static final class Recorder extends EasyAntConsoleListener {
+        private final List<String> events = new ArrayList<String>();
+
+        @Override
+        public void onTarget(String name, long position) {
+            events.add("target " + name);
+        }
+
+        @Override
+        public void onOutcome(boolean success, long position) {
+            events.add("outcome " + success);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package hudson.plugins.easyant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EasyAntFingerprintTest {
+    private File node1;
+    private File node2;
+
+    @Before
+    public void setUp() throws IOException {
+        node1 = createWorkspace();
+        node2 = createWorkspace();
+    }
+
+    @After
+    public void tearDown() {
+        delete(node1);
+        delete(node2);
+    }
+
+    @Test
+    public void isTheSameOnAllTheNodes() throws Exception {
+        assertEquals(fingerprint(node1), fingerprint(node2));
+    }
+
+    @Test
+    public void changesWithTheInputs() throws Exception {
+        String before = fingerprint(node1);
+        write(new File(node1, "module/src/Foo.java"), "class Foo { int i; }");
+        assertFalse(before.equals(fingerprint(node1)));
+    }
+
+    @Test
+    public void namesFilesRelativeToTheModuleRoot() {
+        File root = new File(node1, "module");
+        assertEquals("module.ivy", EasyAntFingerprint.relativize(root,
+                new File(root, "module.ivy")));
+        assertEquals("../build.xml", EasyAntFingerprint.relativize(root,
+                new File(node1, "build.xml")));
+    }
+
+    private static String fingerprint(File workspace) throws Exception {
+        File root = new File(workspace, "module");
+        List<String> files = Arrays.asList(new File(root, "module.ivy")
+                .getPath(), new File(workspace, "build.xml").getPath());
+        return new EasyAntFingerprint("src/**/*.java", files, Arrays.asList(
+                "-buildModule", "module.ivy", "clean test")).invoke(root, null);
+    }
+
+    private static File createWorkspace() throws IOException {
+        File dir = File.createTempFile("workspace", null);
+        dir.delete();
+        write(new File(dir, "module/module.ivy"), "<ivy-module/>");
+        write(new File(dir, "module/src/Foo.java"), "class Foo {}");
+        write(new File(dir, "build.xml"), "<project/>");
+        return dir;
+    }
+
+    private static void write(File f, String content) throws IOException {
+        f.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children)
+                delete(c);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,53 @@
+package hudson.plugins.easyant;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class EasyAntJvmProfileTest {
+    private static final long GB = 1024L * 1024 * 1024;
+
+    private static final Set<String> HOTSPOT = new HashSet<String>(Arrays
+            .asList("UseSerialGC", "UseParallelGC", "UseG1GC",
+                    "ParallelGCThreads", "UseSharedSpaces",
+                    "TieredStopAtLevel"));
+
+    @Test
+    public void computesTheOptionsOfTheNode() {
+        EasyAntJvmProfile profile = new EasyAntJvmProfile(50, 0, "auto",
+                true, true, false, true);
+        assertEquals("-Xmx4096m -XX:+UseParallelGC -XX:ParallelGCThreads=4"
+                + " -Xshare:auto -XX:TieredStopAtLevel=1", profile
+                .getOptions(8, 16 * GB, 2, HOTSPOT, null));
+    }
+
+    @Test
+    public void leavesTheCollectorOfTheStep() {
+        EasyAntJvmProfile profile = new EasyAntJvmProfile(50, 0, "g1", true,
+                false, false, false);
+        assertEquals("-Xmx4096m", profile.getOptions(8, 16 * GB, 2, HOTSPOT,
+                "-XX:+UseConcMarkSweepGC -XX:ParallelGCThreads=2"));
+    }
+
+    @Test
+    public void leavesTheHeapOfTheStep() {
+        EasyAntJvmProfile profile = new EasyAntJvmProfile(50, 0, "auto",
+                false, false, false, false);
+        // the heap of the profile still chooses the collector
+        assertEquals("-XX:+UseParallelGC", profile.getOptions(8, 16 * GB, 2,
+                HOTSPOT, "-Xmx512m"));
+    }
+
+    @Test
+    public void onlyGivesTheFlagsKnownByTheJvm() {
+        EasyAntJvmProfile profile = new EasyAntJvmProfile(50, 0, "g1", true,
+                true, false, true);
+        assertEquals("-Xmx4096m", profile.getOptions(8, 16 * GB, 2,
+                Collections.<String> emptySet(), null));
+    }
+}
@@ -0,0 +1,31 @@
+package hudson.plugins.easyant;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class EasyAntKeyedLockTest {
+    @Test
+    public void forgetsLocksOnceReleased() throws InterruptedException {
+        final EasyAntKeyedLock locks = new EasyAntKeyedLock();
+        locks.lock("a");
+        locks.lock("a");
+        locks.lock("b");
+        assertEquals(2, locks.size());
+
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                locks.lock("b");
+                locks.unlock("b");
+            }
+        };
+        waiter.start();
+        locks.unlock("b");
+        waiter.join();
+        locks.unlock("a");
+        assertEquals(1, locks.size());
+        locks.unlock("a");
+        assertEquals(0, locks.size());
+    }
+}
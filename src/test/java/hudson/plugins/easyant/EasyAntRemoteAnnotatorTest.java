@@ -0,0 +1,101 @@
+package hudson.plugins.easyant;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Sends the output of a node through the frames of
+ * {@link EasyAntRemoteAnnotator.DeflatingStream}, which the channel may split
+ * or merge, and reads it back with
+ * {@link EasyAntRemoteAnnotator.InflatingStream}.
+ */
+public class EasyAntRemoteAnnotatorTest {
+    private final List<byte[]> writes = new ArrayList<byte[]>();
+    private final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+    @Test
+    public void readsCompressedAndRawFramesSplitAcrossWrites()
+            throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            text.append("    [javac] Compiling ").append(i).append(
+                    " source files\n");
+        // compressed
+        add(text.toString().getBytes("UTF-8"));
+        // not compressible, sent raw
+        byte[] random = new byte[1000];
+        new Random(42).nextBytes(random);
+        add(random);
+        // inflated in several passes
+        add(repeat((byte) 'x', EasyAntConsoleAnnotator.BUFFER_SIZE * 5));
+        add(new byte[] { '\n' });
+
+        byte[] framed = deflate();
+        List<Integer> sizes = frameSizes(framed);
+        assertEquals(writes.size(), sizes.size());
+        assertTrue(sizes.get(0) > 0);
+        assertTrue(sizes.get(1) < 0);
+        assertTrue(sizes.get(2) > 0);
+
+        for (int chunk : new int[] { 1, 3, 4, 5, 7, 1000, framed.length })
+            assertArrayEquals("chunks of " + chunk, expected.toByteArray(),
+                    inflate(framed, chunk));
+    }
+
+    private void add(byte[] b) {
+        writes.add(b);
+        expected.write(b, 0, b.length);
+    }
+
+    private byte[] deflate() throws IOException {
+        ByteArrayOutputStream framed = new ByteArrayOutputStream();
+        EasyAntRemoteAnnotator.DeflatingStream out = new EasyAntRemoteAnnotator.DeflatingStream(
+                framed);
+        for (byte[] b : writes)
+            out.write(b, 0, b.length);
+        out.close();
+        return framed.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] framed, int chunk) throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        EasyAntRemoteAnnotator.InflatingStream in = new EasyAntRemoteAnnotator.InflatingStream(
+                log);
+        for (int i = 0; i < framed.length; i += chunk)
+            in.write(framed, i, Math.min(chunk, framed.length - i));
+        in.close();
+        return log.toByteArray();
+    }
+
+    /**
+     * Reads the signed sizes in the headers of the frames.
+     */
+    private static List<Integer> frameSizes(byte[] framed) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        int i = 0;
+        while (i < framed.length) {
+            int size = (framed[i] << 24) | ((framed[i + 1] & 0xFF) << 16)
+                    | ((framed[i + 2] & 0xFF) << 8) | (framed[i + 3] & 0xFF);
+            sizes.add(size);
+            i += 4 + Math.abs(size);
+        }
+        assertEquals(framed.length, i);
+        return sizes;
+    }
+
+    private static byte[] repeat(byte b, int n) {
+        byte[] r = new byte[n];
+        for (int i = 0; i < n; i++)
+            r[i] = b;
+        return r;
+    }
+}
@@ -0,0 +1,198 @@
+package hudson.plugins.easyant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import hudson.console.ConsoleNote;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Slices build logs written as during a build: the lines of Jenkins, the
+ * command line printed by the launcher, then the annotated EasyAnt output.
+ */
+public class EasyAntTargetsActionTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final String OUTPUT = "Buildfile: /workspace/module.ivy\n"
+            + "\n" + "clean:\n" + "   [delete] Deleting directory /workspace/target\n"
+            + "\n" + "compile:\n" + "    [javac] Compiling 3 source files\n"
+            + "    [javac] Note: Some input files use unchecked operations.\n"
+            + "\n" + "test:\n" + "    [junit] Tests run: 3, Failures: 0\n"
+            + "\n" + "BUILD SUCCESSFUL\n" + "Total time: 2 seconds\n";
+
+    private File log;
+    private PrintStream logger;
+    private int maxSlice;
+
+    @Before
+    public void setUp() throws IOException {
+        log = File.createTempFile("log", null);
+        logger = new PrintStream(new FileOutputStream(log), true, "UTF-8");
+        logger.println("Started by user anonymous");
+        logger.println("Building in workspace /workspace");
+        maxSlice = EasyAntTargetsAction.MAX_SLICE;
+    }
+
+    @After
+    public void tearDown() {
+        EasyAntTargetsAction.MAX_SLICE = maxSlice;
+        logger.close();
+        log.delete();
+    }
+
+    @Test
+    public void slicesTargetsAnnotatedOnTheMaster() throws IOException {
+        logger.flush();
+        EasyAntTargetRecorder recorder = new EasyAntTargetRecorder(log
+                .length());
+        // printed by the launcher once the recorder exists
+        logger.println("$ easyant clean compile test");
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(
+                logger, UTF8, recorder);
+        OutputStream stdout = recorder.rebaseOnFirstWrite(annotator, logger,
+                log);
+        stdout.write(OUTPUT.getBytes(UTF8));
+        annotator.end();
+        logger.println("Finished: SUCCESS");
+
+        assertTargets(recorder.getTargets());
+    }
+
+    @Test
+    public void slicesTargetsAnnotatedOnTheNode() throws IOException {
+        logger.flush();
+        EasyAntTargetRecorder recorder = new EasyAntTargetRecorder(log
+                .length());
+        // the launcher and the annotator of the node write to the same stream
+        ByteArrayOutputStream node = new ByteArrayOutputStream();
+        PrintStream listener = new PrintStream(node, true, "UTF-8");
+        listener.println("$ easyant clean compile test");
+        int echo = node.size();
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(node,
+                UTF8, recorder);
+        annotator.write(OUTPUT.getBytes(UTF8));
+        annotator.finish();
+        node.writeTo(logger);
+        logger.println("Finished: SUCCESS");
+
+        recorder.rebase(recorder.getBase() + echo);
+        assertTargets(recorder.getTargets());
+    }
+
+    @Test
+    public void pagesLargeTargetsAtLineEnds() throws IOException {
+        logger.flush();
+        EasyAntTargetRecorder recorder = new EasyAntTargetRecorder(log
+                .length());
+        logger.println("$ easyant clean compile test");
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(
+                logger, UTF8, recorder);
+        recorder.rebaseOnFirstWrite(annotator, logger, log).write(
+                OUTPUT.getBytes(UTF8));
+        annotator.end();
+
+        List<EasyAntTarget> targets = recorder.getTargets();
+        EasyAntTargetsAction.MAX_SLICE = 70;
+        StringBuilder read = new StringBuilder();
+        long start = 0;
+        EasyAntTargetsAction.Slice slice;
+        do {
+            slice = EasyAntTargetsAction.slice(log, targets, 1, start);
+            String text = text(slice);
+            assertTrue(text, text.endsWith("\n"));
+            read.append(text);
+            start = slice.next;
+        } while (slice.more);
+        assertEquals("compile:\n" + "    [javac] Compiling 3 source files\n"
+                + "    [javac] Note: Some input files use unchecked operations.\n"
+                + "\n", removeNotes(read.toString()));
+    }
+
+    @Test
+    public void readsLinesLongerThanASliceWhole() throws IOException {
+        logger.flush();
+        EasyAntTargetRecorder recorder = new EasyAntTargetRecorder(log
+                .length());
+        logger.println("$ easyant clean compile test");
+        EasyAntConsoleAnnotator annotator = new EasyAntConsoleAnnotator(
+                logger, UTF8, recorder);
+        StringBuilder classpath = new StringBuilder("    [javac] Classpath:");
+        for (int i = 0; i < 20; i++)
+            classpath.append(" /workspace/lib/library-").append(i).append(
+                    ".jar");
+        String output = OUTPUT.replace("    [javac] Compiling",
+                classpath + "\n    [javac] Compiling");
+        recorder.rebaseOnFirstWrite(annotator, logger, log).write(
+                output.getBytes(UTF8));
+        annotator.end();
+
+        List<EasyAntTarget> targets = recorder.getTargets();
+        EasyAntTargetsAction.MAX_SLICE = 70;
+        StringBuilder read = new StringBuilder();
+        long start = 0;
+        EasyAntTargetsAction.Slice slice;
+        do {
+            slice = EasyAntTargetsAction.slice(log, targets, 1, start);
+            String text = text(slice);
+            assertTrue(text, text.endsWith("\n"));
+            read.append(text);
+            start = slice.next;
+        } while (slice.more);
+        assertEquals("compile:\n" + classpath + "\n"
+                + "    [javac] Compiling 3 source files\n"
+                + "    [javac] Note: Some input files use unchecked operations.\n"
+                + "\n", removeNotes(read.toString()));
+    }
+
+    private void assertTargets(List<EasyAntTarget> targets) throws IOException {
+        assertEquals(3, targets.size());
+        assertSlice(targets, 0, "clean:\n"
+                + "   [delete] Deleting directory /workspace/target\n" + "\n");
+        assertSlice(targets, 1, "compile:\n"
+                + "    [javac] Compiling 3 source files\n"
+                + "    [javac] Note: Some input files use unchecked operations.\n"
+                + "\n");
+        assertSlice(targets, 2, "test:\n"
+                + "    [junit] Tests run: 3, Failures: 0\n" + "\n");
+    }
+
+    private void assertSlice(List<EasyAntTarget> targets, int index,
+            String expected) throws IOException {
+        EasyAntTargetsAction.Slice slice = EasyAntTargetsAction.slice(log,
+                targets, index, 0);
+        String text = text(slice);
+        assertTrue("starts with its note: " + text, text
+                .startsWith(ConsoleNote.PREAMBLE_STR));
+        assertEquals(expected, removeNotes(text));
+        assertFalse(slice.more);
+        assertEquals(targets.get(index).getLength(), slice.next);
+    }
+
+    private static String text(EasyAntTargetsAction.Slice slice) {
+        return new String(slice.data, 0, slice.length, UTF8);
+    }
+
+    private static String removeNotes(String text) {
+        StringBuilder b = new StringBuilder();
+        int i = 0;
+        int start;
+        while ((start = text.indexOf(ConsoleNote.PREAMBLE_STR, i)) >= 0) {
+            b.append(text, i, start);
+            i = text.indexOf(ConsoleNote.POSTAMBLE_STR, start)
+                    + ConsoleNote.POSTAMBLE_STR.length();
+        }
+        return b.append(text.substring(i)).toString();
+    }
+}
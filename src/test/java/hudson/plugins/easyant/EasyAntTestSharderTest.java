@@ -0,0 +1,61 @@
+package hudson.plugins.easyant;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EasyAntTestSharderTest {
+    @Test
+    public void balancesTheShardsLongestTestsFirst() {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("a.SlowTest", 9000L);
+        durations.put("a.MediumTest", 5000L);
+        durations.put("a.OtherMediumTest", 4000L);
+        durations.put("a.FastTest", 1000L);
+        List<List<String>> split = EasyAntTestSharder.split(Arrays.asList(
+                "a.FastTest", "a.MediumTest", "a.OtherMediumTest",
+                "a.SlowTest"), durations, 2);
+
+        // both shards last 9 s before a.FastTest, which goes to the first
+        assertEquals(Arrays.asList(Arrays.asList("a.SlowTest", "a.FastTest"),
+                Arrays.asList("a.MediumTest", "a.OtherMediumTest")), split);
+    }
+
+    @Test
+    public void countsTestsWithoutHistoryForTheAverage() {
+        Map<String, Long> durations = new HashMap<String, Long>();
+        durations.put("a.LongTest", 6000L);
+        durations.put("a.ShortTest", 2000L);
+        // a.NewTest counts for 4000 ms, so it goes with a.ShortTest
+        List<List<String>> split = EasyAntTestSharder.split(Arrays.asList(
+                "a.LongTest", "a.NewTest", "a.ShortTest"), durations, 2);
+
+        assertEquals(Arrays.asList(Arrays.asList("a.LongTest"), Arrays.asList(
+                "a.NewTest", "a.ShortTest")), split);
+    }
+
+    @Test
+    public void makesNoMoreShardsThanTests() {
+        List<List<String>> split = EasyAntTestSharder.split(Arrays.asList(
+                "a.OneTest", "a.TwoTest"), Collections.<String, Long> emptyMap(),
+                4);
+
+        assertEquals(Arrays.asList(Arrays.asList("a.OneTest"), Arrays
+                .asList("a.TwoTest")), split);
+    }
+
+    @Test
+    public void removesTheTestTargets() {
+        assertEquals("clean compile", EasyAntTestSharder.without(
+                " clean  compile test ", "test"));
+        assertEquals("clean package", EasyAntTestSharder.without(
+                "clean test package integration-test", "test integration-test"));
+        assertEquals("", EasyAntTestSharder.without("test", "test"));
+    }
+}